@@ -0,0 +1,179 @@
+/**
+ * Samples a curve so that no chord deviates from the curve by more than a tolerance.
+ *
+ * The range is first cut into SEED equal spans, so that no feature narrower
+ * than the whole range is stepped over. A span is then halved until the curve
+ * points at a quarter, half and three quarters of it lie within tolerance of
+ * its chord. Flat spans keep few vertices while cusps and tight bends get many.
+ *
+ * The seed spans are subdivided independently of each other, so a parallel
+ * sampler hands them to the threads of ParallelSampler and joins the results
+ * in order; the samples are the same either way.
+ */
+class AdaptiveSampler {
+    static final int SEED = 16;
+    static final int MAX_DEPTH = 24; // spans no shorter than 2^-24 of a seed span
+
+    private final Parametric curve;
+    private final double tolerance;
+    private final boolean parallel;
+    private PointBuffer out;
+    private double[] params = new double[64]; // parameter of each sample of the last sample()
+
+    /**
+     * @param curve curve to sample
+     * @param tolerance largest distance allowed between a chord and the curve,
+     *        in the units of the curve coordinates
+     */
+    AdaptiveSampler(Parametric curve, double tolerance) {
+        this(curve, tolerance, false);
+    }
+
+    /**
+     * @param curve curve to sample, safe to evaluate from several threads if parallel
+     * @param tolerance largest distance allowed between a chord and the curve,
+     *        in the units of the curve coordinates
+     * @param parallel true to subdivide the seed spans on the threads of ParallelSampler
+     */
+    AdaptiveSampler(Parametric curve, double tolerance, boolean parallel) {
+        this.curve = curve;
+        this.tolerance = tolerance;
+        this.parallel = parallel && ParallelSampler.getThreads() > 1;
+    }
+
+    /**
+     * Replaces the contents of out with the samples of [t0, t1], including both ends.
+     */
+    public void sample(double t0, double t1, PointBuffer out) {
+        out.clear();
+        this.out = out;
+        add(t0, curve.x(t0), curve.y(t0));
+        if (parallel) {
+            sampleSeeds(t0, t1);
+        } else {
+            for (int i=1; i<=SEED; i++) {
+                seed(t0, t1, i);
+            }
+        }
+        this.out = null;
+    }
+
+    /**
+     * Subdivides every seed span on its own sampler and thread, then appends them in order.
+     */
+    private void sampleSeeds(final double t0, final double t1) {
+        final AdaptiveSampler[] seeds = new AdaptiveSampler[SEED+1];
+        try {
+            ParallelSampler.run(1, SEED+1, 1, new ParallelSampler.Chunk() {
+                public void run(int from, int to) {
+                    for (int i=from; i<to; i++) {
+                        AdaptiveSampler seed = new AdaptiveSampler(curve, tolerance);
+                        seed.out = new PointBuffer();
+                        seed.seed(t0, t1, i);
+                        seeds[i] = seed;
+                    }
+                }
+                });
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            // evaluating a curve throws no checked exception
+            throw new IllegalStateException(e);
+        }
+        for (int i=1; i<=SEED; i++) {
+            PointBuffer points = seeds[i].out;
+            for (int k=0; k<points.length(); k++) {
+                add(seeds[i].params[k], points.getX(k), points.getY(k));
+            }
+        }
+    }
+
+    /**
+     * Emits the i'th of the SEED spans of [t0, t1], without its first point.
+     */
+    private void seed(double t0, double t1, int i) {
+        double ta = (t1-t0)*(i-1)/SEED+t0;
+        double tb = (t1-t0)*i/SEED+t0;
+        double tm = (ta+tb)/2;
+        subdivide(ta, curve.x(ta), curve.y(ta), tm, curve.x(tm), curve.y(tm), tb, curve.x(tb), curve.y(tb), 0);
+    }
+
+    /**
+     * Same as sample() for a curve which is mirror symmetric about the middle of [t0, t1].
+     *
+     * Only the upper half is subdivided, the lower half is its mirror image across
+     * the vertical line through x((t0+t1)/2).
+     */
+    public void sampleSymmetric(double t0, double t1, PointBuffer out) {
+        PointBuffer upper = new PointBuffer();
+        sample((t0+t1)/2, t1, upper);
+        double cx = upper.getX(0);
+        out.clear();
+        for (int i=upper.length()-1; i>0; i--) {
+            out.add(2*cx-upper.getX(i), upper.getY(i));
+        }
+        for (int i=0; i<upper.length(); i++) {
+            out.add(upper.getX(i), upper.getY(i));
+        }
+    }
+
+    /**
+     * Returns the parameter value of the index'th sample emitted by the last sample().
+     *
+     * @param index index of the sample in out
+     */
+    public double getParameter(int index) {
+        return params[index];
+    }
+
+    private void add(double t, double x, double y) {
+        int index = out.length();
+        if (index == params.length) {
+            double[] grown = new double[2*index];
+            System.arraycopy(params, 0, grown, 0, index);
+            params = grown;
+        }
+        params[index] = t;
+        out.add(x, y);
+    }
+
+    /**
+     * Emits the span from a (already emitted) to b, halving it while it is too coarse.
+     */
+    private void subdivide(double ta, double xa, double ya, double tm, double xm, double ym,
+                           double tb, double xb, double yb, int depth) {
+        double tl = (ta+tm)/2;
+        double xl = curve.x(tl);
+        double yl = curve.y(tl);
+        double tr = (tm+tb)/2;
+        double xr = curve.x(tr);
+        double yr = curve.y(tr);
+        if (depth >= MAX_DEPTH
+            || (deviation(xa, ya, xb, yb, xm, ym) <= tolerance
+                && deviation(xa, ya, xb, yb, xl, yl) <= tolerance
+                && deviation(xa, ya, xb, yb, xr, yr) <= tolerance)) {
+            add(tb, xb, yb);
+            return;
+        }
+        subdivide(ta, xa, ya, tl, xl, yl, tm, xm, ym, depth+1);
+        subdivide(tm, xm, ym, tr, xr, yr, tb, xb, yb, depth+1);
+    }
+
+    /**
+     * Returns the distance of (x, y) from the segment (xa, ya)-(xb, yb).
+     */
+    private static double deviation(double xa, double ya, double xb, double yb, double x, double y) {
+        double dx = xb-xa;
+        double dy = yb-ya;
+        double len2 = dx*dx+dy*dy;
+        double s = (len2 > 0 ? ((x-xa)*dx+(y-ya)*dy)/len2 : 0.0);
+        if (s < 0) {
+            s = 0;
+        } else if (s > 1) {
+            s = 1;
+        }
+        double ex = xa+s*dx-x;
+        double ey = ya+s*dy-y;
+        return Math.sqrt(ex*ex+ey*ey);
+    }
+}
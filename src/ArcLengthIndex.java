@@ -0,0 +1,150 @@
+/**
+ * Maps arc length along a curve to the curve parameter, for exports spaced equally along the curve.
+ *
+ * The length of each of a number of equal parameter panels is integrated once
+ * with 8-point Gauss-Legendre quadrature and accumulated into a table. A lookup
+ * finds its panel by binary search and polishes t by Newton's method on the
+ * length within that panel only, so no solve ever spans the whole curve.
+ */
+class ArcLengthIndex {
+    static final int PANELS = 512;
+    static final int MAX_ITERATIONS = 20;
+
+    private final Parametric curve;
+    private final double t0;
+    private final double t1;
+    private final int panels;
+    private final double[] lengths; // lengths[i] = arc length from t0 to the start of panel i
+    private final GaussLegendre.Integrand speed = new GaussLegendre.Integrand() {
+            public double at(double t) {
+                return speed(t);
+            }
+        };
+
+    /**
+     * @param curve curve to index
+     * @param t0 parameter of arc length 0
+     * @param t1 parameter of the far end
+     */
+    ArcLengthIndex(Parametric curve, double t0, double t1) {
+        this(curve, t0, t1, PANELS);
+    }
+
+    /**
+     * @param curve curve to index
+     * @param t0 parameter of arc length 0
+     * @param t1 parameter of the far end
+     * @param panels number of equal parameter panels in the table
+     */
+    ArcLengthIndex(Parametric curve, double t0, double t1, int panels) {
+        this.curve = curve;
+        this.t0 = t0;
+        this.t1 = t1;
+        this.panels = Math.max(1, panels);
+        this.lengths = new double[this.panels+1];
+        for (int i=0; i<this.panels; i++) {
+            lengths[i+1] = lengths[i]+integrate(panelStart(i), panelStart(i+1));
+        }
+    }
+
+    /**
+     * Returns the length of the whole curve.
+     */
+    public double getLength() {
+        return lengths[panels];
+    }
+
+    /**
+     * Returns the arc length from t0 to t.
+     *
+     * @param t parameter, clamped to [t0, t1]
+     */
+    public double lengthAt(double t) {
+        double u = (t-t0)/(t1-t0)*panels;
+        if (!(u > 0)) {
+            return 0.0;
+        }
+        if (u >= panels) {
+            return lengths[panels];
+        }
+        int i = (int)u;
+        return lengths[i]+integrate(panelStart(i), t);
+    }
+
+    /**
+     * Returns the parameter at arc length s from t0.
+     *
+     * @param s arc length, clamped to [0, getLength()]
+     */
+    public double parameterAt(double s) {
+        if (!(s > 0)) {
+            return t0;
+        }
+        if (s >= lengths[panels]) {
+            return t1;
+        }
+        // last panel starting at or before s
+        int lo = 0;
+        int hi = panels;
+        while (hi-lo > 1) {
+            int mid = (lo+hi) >>> 1;
+            if (lengths[mid] <= s) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+        double a = panelStart(lo);
+        double b = panelStart(lo+1);
+        double ds = lengths[lo+1]-lengths[lo];
+        double t = (ds > 0 ? a+(b-a)*(s-lengths[lo])/ds : a);
+        double tolerance = 1e-12*Math.max(1.0, lengths[panels]);
+        for (int k=0; k<MAX_ITERATIONS; k++) {
+            double f = lengths[lo]+integrate(panelStart(lo), t)-s;
+            if (Math.abs(f) <= tolerance) {
+                break;
+            }
+            // the length grows with t, so the root stays bracketed
+            if (f > 0) {
+                b = t;
+            } else {
+                a = t;
+            }
+            double v = speed(t);
+            double next = (v > 0 ? t-f/v : Double.NaN);
+            if (!(next > a && next < b)) {
+                // a cusp or a poor guess, fall back to bisection
+                next = (a+b)/2;
+            }
+            if (next == t) {
+                break;
+            }
+            t = next;
+        }
+        return t;
+    }
+
+    /**
+     * Returns |c'(t)|, analytically for a UniformKernel and by central difference otherwise.
+     */
+    private double speed(double t) {
+        if (curve instanceof UniformKernel) {
+            return ((UniformKernel)curve).speed(t);
+        }
+        double h = 1e-6*Math.max(1.0, Math.abs(t));
+        double dx = curve.x(t+h)-curve.x(t-h);
+        double dy = curve.y(t+h)-curve.y(t-h);
+        return Math.sqrt(dx*dx+dy*dy)/(2*h);
+    }
+
+    /**
+     * Returns the arc length from a to b by 8-point Gauss-Legendre quadrature.
+     */
+    private double integrate(double a, double b) {
+        return GaussLegendre.integrate(speed, a, b);
+    }
+
+    private double panelStart(int i) {
+        return (i == panels ? t1 : t0+(t1-t0)*i/panels);
+    }
+}
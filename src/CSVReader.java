@@ -0,0 +1,51 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * A CSV file reader for Cycloid applet
+ *
+ * Reads X/Y points in the layout CSVWriter writes, one "x,y" pair per line,
+ * e.g. measurements of an existing arch to fit the curve parameters to.
+ */
+class CSVReader {
+    private CSVReader() {
+    }
+
+    /**
+     * Reads every point of a CSV file; blank lines are skipped.
+     *
+     * @param file filename the user specified
+     * @return the points in file order
+     * @throws IOException if the file cannot be read or a line is not an X/Y pair
+     */
+    public static PointBuffer read(File file) throws IOException {
+        PointBuffer points = new PointBuffer();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                line = line.trim();
+                if (line.length() == 0) {
+                    continue;
+                }
+                int comma = line.indexOf(',');
+                if (comma < 0) {
+                    throw new IOException(file.getName() + ":" + number + ": expected x,y");
+                }
+                try {
+                    points.add(Double.parseDouble(line.substring(0, comma).trim()),
+                               Double.parseDouble(line.substring(comma+1).trim()));
+                } catch (NumberFormatException e) {
+                    throw new IOException(file.getName() + ":" + number + ": " + e.getMessage());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return points;
+    }
+}
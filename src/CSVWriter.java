@@ -9,8 +9,16 @@ import javax.swing.JOptionPane;
  * A CSV file writer for Cycloid applet
  */
 class CSVWriter {
+    private static final int CHUNK = 4096; // samples pulled from a SampleStream at once
     private final PrintWriter writer; // this will never change for each instance
 
+    // prints one line per point; shared by every pass so writing never allocates
+    private final DoubleBiConsumer csvLine = new DoubleBiConsumer() {
+        public void accept(double x, double y) {
+            writer.printf("%5.4f,%5.4f\n", x, y);
+        }
+    };
+
     /**
      * Handles creating CSV file from cycloid/catenary user specified.
      *
@@ -20,6 +28,36 @@ class CSVWriter {
         writer = new PrintWriter(new BufferedWriter(new FileWriter(file)));
     }
 
+    /**
+     * Returns the file next to file whose name ends in suffix before the extension.
+     *
+     * e.g. sibling(arch.csv, "-inner") is arch-inner.csv
+     * @param file filename the user specified
+     * @param suffix text inserted before the extension
+     */
+    public static File sibling(File file, String suffix) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        String sibling = (dot > 0 ? name.substring(0, dot) + suffix + name.substring(dot) : name + suffix);
+        return new File(file.getAbsoluteFile().getParentFile(), sibling);
+    }
+
+    /**
+     * Writes points to the sibling of file with the given suffix, as for offset curves.
+     *
+     * @param file filename the user specified
+     * @param suffix text inserted before the extension
+     * @param points X/Y coords to write
+     */
+    public static void writeSibling(File file, String suffix, PointBuffer points) throws IOException {
+        CSVWriter writer = new CSVWriter(sibling(file, suffix));
+        try {
+            writer.write2DPolyLine(points.view());
+        } finally {
+            writer.closeFile();
+        }
+    }
+
     /**
      * Closes writer used after done.
      */
@@ -37,12 +75,29 @@ class CSVWriter {
     /**
      * Writes 2D polyline's coordinates to CSV file.
      *
-     * @param points points with X/Y coords representing cycloid/catenary
+     * @param points view of the points with X/Y coords representing cycloid/catenary
      */
-    public void write2DPolyLine(final Points points) {
-        for (Point point : points) {
-            writer.printf("%5.4f,%5.4f\n", point.X, point.Y);
-        }
+    public void write2DPolyLine(final PointBuffer.View points) {
+        points.forEach(csvLine);
         writer.flush();
     }
+
+    /**
+     * Streams 2D polyline's coordinates to CSV file chunk by chunk.
+     *
+     * Memory use stays the same whatever the number of samples.
+     * @param samples stream of X/Y coords representing cycloid/catenary
+     * @throws Exception if a sample cannot be computed
+     */
+    public void write2DPolyLine(final SampleStream samples) throws Exception {
+        double[] xs = new double[CHUNK];
+        double[] ys = new double[CHUNK];
+        int n;
+        while ((n = samples.read(xs, ys)) >= 0) {
+            for (int i=0; i<n; i++) {
+                csvLine.accept(xs[i], ys[i]);
+            }
+            writer.flush();
+        }
+    }
 }
@@ -3,11 +3,11 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.Math;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.swing.*;
 import java.awt.*;
-import java.awt.Graphics2D;
-import java.awt.geom.Line2D;
 
 class Catenary extends JPanel {
     static final double PT_TO_MM = 2.8346;
@@ -20,20 +20,36 @@ class Catenary extends JPanel {
     private double g_ys; // scale height
     private double minX;
     private double maxX;
-    private double minY;
-    private double maxY;
-    private double sc;
     private boolean captionEnabled = false;
     private Metric metric;
     private PaperSize paperSize;
     private Format format;
-
-    private Points points;
-    private Points pointsFile;
+    private File sampleStore; // directory of MappedPointStore files, null to stream directly
+    private boolean symmetricSampling = true; // evaluate t >= 0 only and mirror the rest
+    private double chordTolerance = 0.01; // largest distance of an exported chord from the curve, mm
+    private boolean arcLengthSpacing = false; // CSV points equally spaced along the curve, not in X
+    private boolean metricsEnabled = false; // prints length, area and extent in the caption
+    private double offsetDistance = 0.0; // router bit radius in mm, 0 for no offset curves
+    private Load load = Load.CHAIN; // how the weight hanging from the curve is spread
+    private double taper = 0.5; // density at the right support over the middle, minus 1, for Load.LINEAR
+
+    private static final double PREVIEW_TOLERANCE = 1.0/32; // pixels; coarser chords show as kinks
+    private static final int MAX_EQUAL_X_RESOLUTION = 1 << 18;
+    private static final int MAX_LOADED_CURVES = 4; // solved shapes kept, e.g. while toggling the load
+
+    private final ShapeCache shapes = new ShapeCache(); // unit catenaries and a/w ratios
+    private final PreviewRenderer renderer = new PreviewRenderer(this);
+    private final PolylineCache polylines = PolylineCache.getShared();
+    private ArcLengthIndex arcIndex; // inverts arc length for equal-spacing exports
+    private String arcIndexKey; // parameters arcIndex was built for
+    // integrated shapes for any load but Load.CHAIN, keyed by their parameters; guarded by itself
+    private final Map<String, LoadedCurve> loadedCurves = new LinkedHashMap<String, LoadedCurve>(8, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, LoadedCurve> eldest) {
+                return size() > MAX_LOADED_CURVES;
+            }
+        };
 
     public Catenary() {
-        points = new Points();
-        pointsFile = new Points();
         cLength = 200.00;
         cDepth = 20.0;
         percent = 110.0;
@@ -41,9 +57,6 @@ class Catenary extends JPanel {
         g_ys = 1.0;
         minX = 0.0;
         maxX = 0.0;
-        minY = 0.0;
-        maxY = 0.0;
-        sc = 0.0;
         metric = Metric.MM;
         paperSize = PaperSize.LETTER;
         format = Format.PDF;
@@ -130,6 +143,265 @@ class Catenary extends JPanel {
         this.format = format;
     }
 
+    public File getSampleStore() {
+        return sampleStore;
+    }
+
+    /**
+     * Keeps exported samples in memory-mapped files under dir so that very large
+     * exports stay off the heap and identical parameters are not sampled again.
+     *
+     * @param dir store directory, or null to stream samples straight to the file
+     */
+    public void setSampleStore(File dir) {
+        this.sampleStore = dir;
+    }
+
+    /**
+     * Returns true if only half of the curve is evaluated and mirrored.
+     *
+     * A lopsided Load.LINEAR curve is never mirrored, whatever was enabled.
+     */
+    public boolean isSymmetricSampling() {
+        return symmetricSampling && (load != Load.LINEAR || taper == 0);
+    }
+
+    /**
+     * Enables evaluating only the t >= 0 half of the curve and mirroring it.
+     *
+     * CatenaryY is even and CatenaryX is odd, so the curve is symmetric about t=0.
+     */
+    public void setSymmetricSampling(boolean enable) {
+        symmetricSampling = enable;
+    }
+
+    public Load getLoad() {
+        return load;
+    }
+
+    /**
+     * Sets how the weight hanging from the curve is spread.
+     *
+     * Load.CHAIN is the uniform chain a*cosh(t/a)-a; the others are integrated
+     * numerically to span cLength and sag by cDepth.
+     */
+    public void setLoad(Load load) {
+        this.load = load;
+    }
+
+    public double getTaper() {
+        return taper;
+    }
+
+    /**
+     * Sets how much heavier the chain gets towards its right support under Load.LINEAR.
+     *
+     * @param taper density at the right support over the middle, minus 1; -0.5 makes the
+     * left end the heavier one; kept within +-0.95 so neither end weighs nothing
+     */
+    public void setTaper(double taper) {
+        this.taper = Math.max(-0.95, Math.min(0.95, taper));
+    }
+
+    public double getChordTolerance() {
+        return chordTolerance;
+    }
+
+    /**
+     * Sets how far an exported chord may stray from the true curve.
+     *
+     * @param tolerance largest chord deviation in mm, after scaling
+     */
+    public void setChordTolerance(double tolerance) {
+        if (tolerance > 0) {
+            this.chordTolerance = tolerance;
+        }
+    }
+
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    /**
+     * Adds the length, area and extent of the catenary to the PDF/PS caption.
+     */
+    public void setMetricsEnabled(boolean enable) {
+        metricsEnabled = enable;
+    }
+
+    /**
+     * Returns the length, area below the chord and bounding box of the drawn catenary.
+     *
+     * The catenary spans cLength and sags by cDepth, as on the PDF/PS page.
+     */
+    public CurveMetrics getMetrics() {
+        double length = cLength/2.;
+        double a = computeA(length, cDepth);
+        return CurveMetrics.forCurve("catenary " + a + " " + length + " " + g_xs + " " + g_ys + " " + getLoadKey(),
+                                     getKernel(a), -1*length, length);
+    }
+
+    /**
+     * Returns 'a' of the catenary spanning cLength and sagging by cDepth, as drawn on the page.
+     */
+    public double getA() {
+        return computeA(cLength/2., cDepth);
+    }
+
+    public double getOffsetDistance() {
+        return offsetDistance;
+    }
+
+    /**
+     * Sets the distance of the inner and outer offset curves exported with the catenary.
+     *
+     * @param distance router bit radius in mm, after scaling; 0 exports the curve alone
+     */
+    public void setOffsetDistance(double distance) {
+        this.offsetDistance = Math.max(0.0, distance);
+    }
+
+    /**
+     * Returns the offset of CatenaryX/Y(a, t) inside the sag or outside it.
+     *
+     * @param a 'a' for catenary
+     * @param outer true for the convex side, below the curve
+     */
+    public OffsetCurve getOffsetCurve(double a, boolean outer) {
+        // the catenary travels towards +x, so its concave inside is on the left
+        return new OffsetCurve(getKernel(a), (outer ? -1*offsetDistance : offsetDistance));
+    }
+
+    /**
+     * Traces an offset of CatenaryX/Y(a, t) over t in [-t1, t1] into out.
+     *
+     * @param a 'a' for catenary
+     * @param t1 half the parameter range
+     * @param outer true for the convex side, below the curve
+     * @param out receives the trimmed offset polyline
+     */
+    public void traceOffset(double a, double t1, boolean outer, PointBuffer out) {
+        getOffsetCurve(a, outer).trace(-1*t1, t1, chordTolerance, out);
+    }
+
+    public boolean isArcLengthSpacing() {
+        return arcLengthSpacing;
+    }
+
+    /**
+     * Spaces CSV points equally along the curve instead of equally in X.
+     */
+    public void setArcLengthSpacing(boolean enable) {
+        arcLengthSpacing = enable;
+    }
+
+    /**
+     * Returns the arc length index of CatenaryX/Y over t in [-t1, t1].
+     *
+     * The index is kept until the parameters change.
+     *
+     * @param t1 half the parameter range
+     */
+    ArcLengthIndex getArcLengthIndex(double t1) {
+        String key = cLength + " " + cDepth + " " + t1 + " " + g_xs + " " + g_ys + " " + getLoadKey();
+        if (!key.equals(arcIndexKey)) {
+            arcIndex = new ArcLengthIndex(getKernel(cLength), -1*t1, t1);
+            arcIndexKey = key;
+        }
+        return arcIndex;
+    }
+
+    /**
+     * Returns the equal steps across [-t1, t1] that keep every chord of CatenaryX/Y within the tolerance.
+     *
+     * y'' = cosh(t/cLength)/cLength grows towards the ends, where a chord dx wide
+     * strays at most dx*dx*|y''|/8 from the curve. A loaded curve is bounded
+     * by its integrated y'' instead.
+     *
+     * @param t1 half the parameter range
+     */
+    private int getEqualXResolution(double t1) {
+        double bend = (isLoaded() ? getLoadedCurve().getMaxSecondDerivative(-1*t1, t1)
+                                          : Math.cosh(t1/cLength)/Math.abs(cLength))*Math.abs(g_ys)/(g_xs*g_xs);
+        double dx = Math.sqrt(8*chordTolerance/bend);
+        return (int)Math.max(20, Math.min(MAX_EQUAL_X_RESOLUTION, Math.ceil(Math.abs(2*t1*g_xs)/dx)));
+    }
+
+    /**
+     * Returns the parameters CatenaryX/Y depend on, to key cached samples with.
+     */
+    public String getCurveKey() {
+        return cLength + " " + cDepth + " " + percent + " " + g_xs + " " + g_ys + " " + isSymmetricSampling()
+            + " " + getLoadKey();
+    }
+
+    /**
+     * Returns true if the curve is integrated under a load rather than the uniform chain.
+     *
+     * Without a span and a sag there is nothing to solve, and the chain stands in.
+     */
+    private boolean isLoaded() {
+        return load != Load.CHAIN && cLength > 0 && cDepth > 0;
+    }
+
+    /**
+     * Returns the load and, if it matters, the taper, to key cached shapes with.
+     */
+    private String getLoadKey() {
+        return (load == Load.LINEAR ? load + " " + taper : load.toString());
+    }
+
+    /**
+     * Returns CatenaryX/Y(a, t) as a kernel for uniform sampling.
+     *
+     * @param a 'a' for catenary; a loaded curve is solved from cLength and cDepth and ignores it
+     */
+    public UniformKernel getKernel(double a) {
+        if (isLoaded()) {
+            return getLoadedCurve();
+        }
+        return new UniformKernel.CatenaryCurve(a, g_xs, g_ys);
+    }
+
+    /**
+     * Returns the curve under the load spanning cLength and sagging by cDepth.
+     *
+     * The shape is tabulated over the widest range any export asks for. It is
+     * shared with the preview through loadedCurves, so whichever of them needs
+     * it first solves it.
+     *
+     * @throws IllegalStateException if no such curve can be found
+     */
+    LoadedCurve getLoadedCurve() {
+        return solve(loadedCurves, load, taper, cLength, cDepth, (percent > 100.0 ? percent/100.0 : 1.0), g_xs, g_ys);
+    }
+
+    /**
+     * Returns the curve under load from cache, solving and caching it if it is not there yet.
+     *
+     * Called on the event thread by exports and on the rendering thread by the
+     * preview. The solve runs outside the lock, so two threads asking at once
+     * may both solve it; the curves are equal and either may be kept. A
+     * LoadedCurve is only read once solved, so the threads may share it.
+     *
+     * @param percent extent over half the span, at least 1
+     */
+    private static LoadedCurve solve(Map<String, LoadedCurve> cache, Load load, double taper, double length,
+                                     double depth, double percent, double sx, double sy) {
+        String key = load + " " + taper + " " + length + " " + depth + " " + percent + " " + sx + " " + sy;
+        LoadedCurve curve;
+        synchronized (cache) {
+            curve = cache.get(key);
+        }
+        if (curve == null) {
+            curve = new LoadedCurve(load, taper, length, depth, length/2.*percent, sx, sy);
+            synchronized (cache) {
+                cache.put(key, curve);
+            }
+        }
+        return curve;
+    }
+
     /**
      * Function Catenary
      * Evaluates the catenary at a t value
@@ -146,95 +418,222 @@ class Catenary extends JPanel {
         return CatenaryX(t);
     }
 
+    /**
+     * A loaded curve is looked up in loadedCurves on every call; loops over
+     * many points take getKernel(cLength) once instead.
+     */
     double CatenaryY(double t) {
+        if (isLoaded()) {
+            return getLoadedCurve().y(t);
+        }
         double y = cLength*Math.cosh(t/cLength)-cLength;
         y *= g_ys;
         return y;
     }
 
     double CatenaryY(double a, double t) {
+        if (isLoaded()) {
+            return getLoadedCurve().y(t);
+        }
         double y = a*Math.cosh(t/a)-a;
         y *= g_ys;
         return y;
     }
 
+    /**
+     * Batch form of CatenaryX/Y(a, t): evaluates both at res+1 uniform steps from t0 to t1.
+     *
+     * cosh is advanced by the recurrence of UniformKernel; long runs are split across threads.
+     *
+     * @param a 'a' for catenary
+     * @param xs receives res+1 X coordinates
+     * @param ys receives res+1 Y coordinates
+     */
+    public void CatenaryXY(double a, double t0, double t1, int res, double[] xs, double[] ys) {
+        ParallelSampler.sample(getKernel(a), t0, t1, res, 0, res+1, xs, ys, 0);
+    }
+
+    /**
+     * Batch form of CatenaryX/Y(a, t) at arbitrary t values.
+     *
+     * @param a 'a' for catenary
+     * @param ts t values
+     * @param n number of values to evaluate
+     * @param xs receives n X coordinates
+     * @param ys receives n Y coordinates
+     */
+    public void CatenaryXY(double a, double[] ts, int n, double[] xs, double[] ys) {
+        getKernel(a).eval(ts, 0, n, xs, ys);
+    }
+
     /**
      * Function FileCatenary
-     * Evaluates the catenary at a t value which is stored to a file
+     * Evaluates the catenary at arc length s from its left end, for equal spacing along it
      * Returns both X/Y coordinates as this function is a bit expensive
+     *
+     * @param kernel getKernel(cLength), resolved once for all the points
+     * @param index arc length index of CatenaryX/Y
+     * @param s arc length, from 0 to index.getLength()
+     * @param point receives the X/Y coordinates
      */
-    void FileCatenary(double t, Point point) throws Exception {
-        double t0 = 0.0; double v0 = 0.0;
-        double t1 = 0.0; double v1 = 0.0;
-        double t2 = 0.0; double v2 = 0.0;
-        double tt = 0.0; double v = 0.0;
-        int count = 0;
+    void FileCatenary(UniformKernel kernel, ArcLengthIndex index, double s, Point point) {
+        double t = index.parameterAt(s);
 
-        // Need to find out about the implementation
-        point.X = CatenaryX(t);
-        point.Y = CatenaryY(t);
+        point.X = kernel.x(t);
+        point.Y = kernel.y(t);
     }
 
     /**
      * Function: draw
      * Receives Graphics object from JComponent to draw itself
+     *
+     * The curve is sampled and stroked by a PreviewRenderer off the event
+     * thread; this only copies the parameters and the last finished image.
      */
     public void paintComponent(Graphics g) {
         super.paintComponent(g);
-        double width = getWidth();
-        double height = getHeight();
-        double tmpPercent = (this.percent > 100.0 ? this.percent/100.0 : 1.0); // used for Catenary calculation
-        minX = CatenaryX(-1*cDepth*tmpPercent);
-        maxX = CatenaryX(cDepth*tmpPercent);
-        minY = 0;
-        maxY = CatenaryY(0.0);
-
-        int res = (int)(width/2);
-
-        if (points.length() < res) {
-            points.resize(res+1);
+        renderer.paint(g, new Preview(this));
+    }
+
+    /**
+     * The parameters the preview depends on, copied on the event thread.
+     *
+     * A curve under a load is solved on the rendering thread unless an
+     * export has solved it already; either way exports reuse it.
+     */
+    private static final class Preview implements PreviewRenderer.Scene {
+        private final double cLength;
+        private final double cDepth;
+        private final double percent;
+        private final double g_xs;
+        private final double g_ys;
+        private final boolean symmetricSampling; // as set, for the unit shapes
+        private final boolean symmetric; // as applied to this curve
+        private final boolean isLoaded;
+        private final Load load;
+        private final double taper;
+        private final Map<String, LoadedCurve> loadedCurves;
+        private final String curveKey;
+        private final ShapeCache shapes;
+        private final PolylineCache polylines;
+
+        Preview(Catenary catenary) {
+            cLength = catenary.cLength;
+            cDepth = catenary.cDepth;
+            percent = (catenary.percent > 100.0 ? catenary.percent/100.0 : 1.0);
+            g_xs = catenary.g_xs;
+            g_ys = catenary.g_ys;
+            symmetricSampling = catenary.symmetricSampling;
+            symmetric = catenary.isSymmetricSampling();
+            isLoaded = catenary.isLoaded();
+            load = catenary.load;
+            taper = catenary.taper;
+            loadedCurves = catenary.loadedCurves;
+            curveKey = catenary.getCurveKey();
+            shapes = catenary.shapes;
+            polylines = catenary.polylines;
         }
 
-        // clears previous contents
-        points.clear();
-
-        for (int i=0; i<=res; i++) {
-            double t = 2*cDepth*i/res-cDepth;
-            t *= tmpPercent; // not sure but need to double check
-            double x = CatenaryX(t);
-            double y = CatenaryY(t);
-            if (x < minX) minX = x;
-            if (x > maxX) maxX = x;
-            if (y < minY) minY = y;
-            if (y > maxY) maxY = y;
-            points.addPoint(new Point(x,y));
+        public String getKey() {
+            return curveKey;
         }
 
-        double sx = (width-10)/(maxX-minX);
-        double sy = (height-10)/(maxY-minY);
-        if (sx < sy) {
-            sc = sx;
-        } else {
-            sc = sy;
-            // ignore offset X/Y for now
+        public PointBuffer sample(int width, int height) {
+            LoadedCurve loaded = null;
+            if (isLoaded) {
+                loaded = solve(loadedCurves, load, taper, cLength, cDepth, percent, g_xs, g_ys);
+            }
+            // a loaded curve is drawn over the span it was solved for
+            double extent = (isLoaded ? cLength/2.*percent : cDepth*percent);
+            double minX = -1*extent*g_xs;
+            double maxX = extent*g_xs;
+            double minY = 0;
+            double maxY = y(loaded, 0.0);
+
+            int res = width/2;
+
+            // curve coordinates, shared through the cache with other repaints
+            String key = "catenary-preview " + curveKey + " " + res + " " + height;
+            PointBuffer curve = polylines.get(key);
+            if (curve == null) {
+                curve = new PointBuffer(res+1);
+                // the ends are the highest points
+                double top = Math.max(maxY, Math.max(y(loaded, minX/g_xs), y(loaded, maxX/g_xs)));
+                double scale = Math.min((width-10)/(maxX-minX), (height-10)/(top-minY));
+                // not sure about scaling t by percent but need to double check
+                if (isLoaded) {
+                    AdaptiveSampler sampler = new AdaptiveSampler(loaded, unitTolerance(scale, 1.0));
+                    if (symmetric) {
+                        sampler.sampleSymmetric(-1*extent, extent, curve);
+                    } else {
+                        sampler.sample(-1*extent, extent, curve);
+                    }
+                } else if (cLength > 0) {
+                    // y/cLength = cosh(x/cLength)-1, so the shape only depends on the extent over cLength
+                    double e = cDepth*percent/cLength;
+                    double tolerance = unitTolerance(scale, Math.abs(cLength)*Math.max(Math.abs(g_xs), Math.abs(g_ys)));
+                    PointBuffer shape = shapes.getAdaptiveShape("catenary " + e + " " + tolerance + " " + symmetricSampling,
+                        new UniformKernel.CatenaryCurve(1.0, 1.0, 1.0), -1*e, e, tolerance, symmetricSampling);
+                    curve.transform(shape, cLength*g_xs, cLength*g_ys, 0.0, 0.0);
+                } else if (symmetricSampling) {
+                    curve.fillSymmetric(new UniformKernel.CatenaryCurve(cLength, g_xs, g_ys),
+                                        -1*cDepth*percent, cDepth*percent, res);
+                } else {
+                    curve.fill(new UniformKernel.CatenaryCurve(cLength, g_xs, g_ys),
+                               -1*cDepth*percent, cDepth*percent, res);
+                }
+                polylines.put(key, curve);
+            }
+            res = curve.length()-1;
+            for (int i=0; i<=res; i++) {
+                double x = curve.getX(i);
+                double y = curve.getY(i);
+                if (x < minX) minX = x;
+                if (x > maxX) maxX = x;
+                if (y < minY) minY = y;
+                if (y > maxY) maxY = y;
+            }
+
+            double sx = (width-10)/(maxX-minX);
+            double sy = (height-10)/(maxY-minY);
+            double sc;
+            if (sx < sy) {
+                sc = sx;
+            } else {
+                sc = sy;
+                // ignore offset X/Y for now
+            }
+            // x = sc*(x-minX)+5, y = height-(sc*(y-minY))-5
+            PointBuffer points = new PointBuffer(res+1);
+            points.transform(curve, sc, -1*sc, 5-sc*minX, height+sc*minY-5);
+            return points;
         }
-        for (int i=0; i<=res; i++) {
-            double x = points.getX(i);
-            double y = points.getY(i);
-            x = sc*(x-minX)+5;
-            y = height-(sc*(y-minY))-5;
-            points.setPoint(i, new Point(x, y));
+
+        /**
+         * Same as CatenaryY(t) for these parameters.
+         */
+        private double y(LoadedCurve loaded, double t) {
+            if (loaded != null) {
+                return loaded.y(t);
+            }
+            return (cLength*Math.cosh(t/cLength)-cLength)*g_ys;
         }
+    }
 
-        // Use Line2D since Graphics drawLine doesn't take doubles
-        Graphics2D g2 = (Graphics2D) g;
-        for (int i=1; i<=res; i++) {
-            Line2D.Double line = new Line2D.Double(points.getX(i-1),
-                                                   points.getY(i-1),
-                                                   points.getX(i),
-                                                   points.getY(i));
-            g2.draw(line);
+    /**
+     * Returns PREVIEW_TOLERANCE in the coordinates of a unit shape drawn size times larger.
+     *
+     * The scale is estimated from the ends; the result is rounded down to a power
+     * of two so that small size changes keep hitting the same cached shape.
+     *
+     * @param scale pixels per curve unit
+     */
+    private static double unitTolerance(double scale, double size) {
+        double tolerance = PREVIEW_TOLERANCE/(scale*size);
+        if (!(tolerance > 0) || Double.isInfinite(tolerance)) {
+            return 1e-3;
         }
+        return Math.pow(2, Math.floor(Math.log(tolerance)/Math.log(2)));
     }
 
     /**
@@ -251,42 +650,65 @@ class Catenary extends JPanel {
      * @param d depth
      */
     private double computeA(double w, double d) {
-        double l;
-        double al, au;
-
-        l = 1.0 * Math.cosh(w/1.0)-1.0;
-        if (l == d) {
-            return 1.0;
-        } else if (l > d) {
-            // need to increase l
-            au = al = 1.0;
-            while (l > d) {
-                al = au;
-                au *= 2.0;
-                l = au*Math.cosh(w/au)-au;
-            }
-        } else {
-            // need to decrease l
-            au = al = 1.0;
-            while (l < d) {
-                au = al;
-                al /= 2.;
-                l = al*Math.cosh(w/al)-al;
-            }
+        // a scales with the catenary, so a/w only depends on d/w and one entry
+        // serves every (w, d) of the same shape
+        String key = Double.toString(d/w);
+        Double ratio = shapes.getRatio(key);
+        if (ratio != null) {
+            return w*ratio.doubleValue();
         }
+        double a = solveA(w, d);
+        shapes.putRatio(key, a/w);
+        return a;
+    }
 
-        // now do a binary search
-        while (Math.abs(l-d)>1e-12) {
-            double m;
-            m = (au+al)/2.;
-            l = m*Math.cosh(w/m)-m;
-            if (l > d) {
-                al = m;
+    /**
+     * Solves a*cosh(w/a)-a = d for a without the cache.
+     *
+     * With s = w/a this is (cosh(s)-1)/s = d/w, solved by Newton on the log of both
+     * sides, which is increasing in s and never overflows. Steps leaving the
+     * bracket known so far are replaced by bisection.
+     *
+     * @return a, or infinity (a flat line) if w or d is not positive
+     */
+    private double solveA(double w, double d) {
+        if (!(w > 0 && d > 0)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double target = Math.log(d/w);
+        double lo = 0.0;
+        double hi = Double.POSITIVE_INFINITY;
+        // small s: (cosh(s)-1)/s ~ s/2; large s: ~ e^s/(2s)
+        double s = (d/w < 1.0 ? 2*d/w : target+Math.log(2*target+2));
+        for (int i=0; i<100; i++) {
+            double h = logCoshM1(s)-Math.log(s)-target;
+            if (h > 0) {
+                hi = s;
             } else {
-                au = m;
+                lo = s;
             }
+            // d/ds log((cosh(s)-1)/s) = coth(s/2)-1/s
+            double next = s-h/(1/Math.tanh(s/2)-1/s);
+            if (!(next > lo && next < hi)) {
+                next = (hi == Double.POSITIVE_INFINITY ? 2*s : (lo+hi)/2);
+            }
+            if (Math.abs(next-s) <= 1e-15*s) {
+                s = next;
+                break;
+            }
+            s = next;
         }
-        return au;
+        return w/s;
+    }
+
+    /**
+     * Returns log(cosh(s)-1) for s > 0 without overflow or cancellation.
+     */
+    private static double logCoshM1(double s) {
+        // cosh(s)-1 = 2*sinh(s/2)^2
+        double x = s/2;
+        double logSinh = (x < 1.0 ? Math.log(Math.sinh(x)) : x+Math.log1p(-Math.exp(-2*x))-Math.log(2.0));
+        return Math.log(2.0)+2*logSinh;
     }
 
     private boolean isSplit(double a, double w) {
@@ -359,34 +781,61 @@ class Catenary extends JPanel {
      * @param length half of cLength
      */
     void writeToCSV(File file, double a, double length) throws IOException {
-        double percent = (this.percent > 100.0 ? this.percent/100.0 : 1.0);
-        double minX = CatenaryX(-1*length*percent);
-        double maxX = CatenaryX(length*percent);
-
-        int res = (int)(maxX-minX)/2;
-        if (res < 20) {
-            res = 50;
+        final double percent = (this.percent > 100.0 ? this.percent/100.0 : 1.0);
+        int res = getEqualXResolution(length*percent);
+        final ArcLengthIndex index = (arcLengthSpacing ? getArcLengthIndex(length*percent) : null);
+        if (index != null) {
+            // the curvature never exceeds |y''|, so chords no longer than the X step stay within tolerance
+            double span = 2*length*percent*Math.abs(g_xs);
+            res = (int)Math.max(20, Math.min(MAX_EQUAL_X_RESOLUTION, Math.ceil(res*index.getLength()/span)));
         }
 
-        pointsFile.clear();
-
-        for (int i=0; i<=res; i++) {
-            try {
-                Point point = new Point();
-                FileCatenary(2*length*percent*i/res-length*percent, point);
-                pointsFile.addPoint(point);
-            } catch (Exception e) {
-                JOptionPane.showMessageDialog(this,
-                    "writeToCSV: " + e.getMessage(),
-                    "Error",
-                    JOptionPane.ERROR_MESSAGE);
-                return;
+        final int n = res;
+        final double halfLength = length;
+        // looked up once: CatenaryY would find a loaded curve in loadedCurves for every point
+        final UniformKernel kernel = getKernel(cLength);
+        // points are evaluated only as the writer pulls them, nothing is buffered
+        IndexedSampleStream evaluated = new IndexedSampleStream(res) {
+            protected void sample(int i, Point point) throws Exception {
+                if (index != null) {
+                    FileCatenary(kernel, index, index.getLength()*i/n, point);
+                } else {
+                    double t = 2*halfLength*percent*i/n-halfLength*percent;
+                    point.X = kernel.x(t);
+                    point.Y = kernel.y(t);
+                }
             }
+        };
+        if (isSymmetricSampling()) {
+            evaluated.mirrored(CatenaryX(0.0));
+        }
+        // every point depends on its index alone and reads the kernel without locking
+        evaluated.parallel();
+        SampleStream samples = evaluated;
+        try {
+            if (sampleStore != null) {
+                samples = MappedPointStore.cached(sampleStore, "catenary-csv " + cLength + " " + cDepth
+                    + " " + percent + " " + g_xs + " " + g_ys + " " + length + " " + res + " " + arcLengthSpacing
+                    + " " + getLoadKey(),
+                    res+1, samples);
+            } else {
+                samples = polylines.cached("catenary-csv " + getCurveKey() + " " + length + " " + res
+                                           + " " + arcLengthSpacing, res+1, samples);
+            }
+        } catch (Exception e) {
+            // bails out before the file is created
+            JOptionPane.showMessageDialog(this,
+                "writeToCSV: " + e.getMessage(),
+                "Error",
+                JOptionPane.ERROR_MESSAGE);
+            return;
         }
 
         CSVWriter writer = new CSVWriter(file);
+        boolean complete = false;
         try {
-            writer.write2DPolyLine(pointsFile);
+            writer.write2DPolyLine(samples);
+            complete = true;
         } catch (Exception e) {
             JOptionPane.showMessageDialog(this,
                 "writeToCSV: " + e.getMessage(),
@@ -397,6 +846,34 @@ class Catenary extends JPanel {
             if (writer != null) {
                 writer.closeFile();
             }
+            if (!complete) {
+                // bails out without leaving an incomplete file behind
+                file.delete();
+            }
+        }
+        if (complete && offsetDistance > 0) {
+            writeOffsetCSV(file, length*percent);
+        }
+    }
+
+    /**
+     * Writes the inner and outer offset curves next to the CSV file, as name-inner.csv and name-outer.csv.
+     *
+     * @param file filename the user specified for the catenary
+     * @param t1 half the parameter range of the CSV points
+     */
+    private void writeOffsetCSV(File file, double t1) {
+        try {
+            PointBuffer offset = new PointBuffer();
+            traceOffset(cLength, t1, false, offset);
+            CSVWriter.writeSibling(file, "-inner", offset);
+            traceOffset(cLength, t1, true, offset);
+            CSVWriter.writeSibling(file, "-outer", offset);
+        } catch (Exception e) {
+            JOptionPane.showMessageDialog(this,
+                "writeToCSV: " + e.getMessage(),
+                "Error",
+                JOptionPane.ERROR_MESSAGE);
         }
     }
 
@@ -409,27 +886,30 @@ class Catenary extends JPanel {
      */
     void writeToDXF(File file, double a, double length) throws IOException {
         double percent = (this.percent > 100.0 ? this.percent/100.0 : 1.0);
-        double minX = CatenaryX(-1*length*percent);
-        double maxX = CatenaryX(length*percent);
-
-        int res = (int)(maxX-minX)/2;
-        if (res < 20) {
-            res = 50;
-        }
-
-        // clears previous contents
-        pointsFile.clear();
-
-        for (int i=0; i<=res; ++i) {
-            double x = CatenaryX(2*length*percent*i/res-length*percent);
-            double y = CatenaryY(2*length*percent*i/res-length*percent);
-            pointsFile.addPoint(new Point(x,y));
-        }
-
         DXFWriter writer = new DXFWriter(file);
         try {
+            String key = "catenary-dxf " + getCurveKey() + " " + length + " " + chordTolerance;
+            PointBuffer line = polylines.get(key);
+            if (line == null) {
+                line = new PointBuffer();
+                AdaptiveSampler sampler = new AdaptiveSampler(getKernel(cLength), chordTolerance, true);
+                if (isSymmetricSampling()) {
+                    sampler.sampleSymmetric(-1*length*percent, length*percent, line);
+                } else {
+                    sampler.sample(-1*length*percent, length*percent, line);
+                }
+                polylines.put(key, line);
+            }
+            SampleStream stream = line.stream();
             writer.writeHeader();
-            writer.write2DPolyLine(pointsFile);
+            writer.write2DPolyLine(stream);
+            if (offsetDistance > 0) {
+                PointBuffer offset = new PointBuffer();
+                traceOffset(cLength, length*percent, false, offset);
+                writer.write2DPolyLine(offset.stream(), "INNER");
+                traceOffset(cLength, length*percent, true, offset);
+                writer.write2DPolyLine(offset.stream(), "OUTER");
+            }
             writer.writeTrailer();
         } catch (Exception e) {
             JOptionPane.showMessageDialog(this,
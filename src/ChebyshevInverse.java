@@ -0,0 +1,207 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Piecewise Chebyshev approximation of the inverse of xi = theta+k*sin(theta).
+ *
+ * This is the X-to-angle map of a trochoid normalized by R, with k = r/R. The
+ * inverse is odd and theta(xi+2*pi) = theta(xi)+2*pi, so only [0, pi] is
+ * tabulated, in pieces which get geometrically shorter towards the cusp at pi.
+ * Pieces are doubled until the error measured against exact solves on a grid
+ * denser than the nodes is below MAX_ERROR; an equal-X sample then
+ * costs a table evaluation and one polishing step. Only curtate ratios,
+ * 0 <= k < 1, have a smooth inverse, and tables that cannot meet MAX_ERROR
+ * within MAX_PIECES pieces are not built.
+ */
+class ChebyshevInverse {
+    static final double MAX_ERROR = 1e-7; // in radians
+    static final int DEGREE = 12;
+    static final int MAX_PIECES = 1024;
+    private static final int MAX_TABLES = 8;
+
+    private static final LinkedHashMap<Double, ChebyshevInverse> tables =
+        new LinkedHashMap<Double, ChebyshevInverse>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Double, ChebyshevInverse> eldest) {
+                return size() > MAX_TABLES;
+            }
+        };
+
+    private final double k;
+    private final int uniform; // pieces of equal width on [0, pi/2]
+    private final int levels; // halvings of the distance to pi
+    private final int perLevel; // pieces per halving
+    private final double[] from; // start of each piece in xi
+    private final double[] to; // end of each piece in xi
+    private final double[] coefs; // DEGREE+1 per piece
+    private double error;
+
+    private ChebyshevInverse(double k, int uniform, int levels, int perLevel) {
+        this.k = k;
+        this.uniform = uniform;
+        this.levels = levels;
+        this.perLevel = perLevel;
+        int pieces = uniform+levels*perLevel;
+        this.from = new double[pieces];
+        this.to = new double[pieces];
+        this.coefs = new double[pieces*(DEGREE+1)];
+        for (int p=0; p<uniform; p++) {
+            from[p] = Math.PI/2*p/uniform;
+            to[p] = Math.PI/2*(p+1)/uniform;
+        }
+        // level L covers pi-d..pi-d/2 with d = pi/2^(L+1); the last one reaches pi
+        for (int L=0; L<levels; L++) {
+            double d = Math.PI/2*Math.pow(0.5, L);
+            for (int j=0; j<perLevel; j++) {
+                int p = uniform+L*perLevel+j;
+                from[p] = Math.PI-d+d/2*j/perLevel;
+                to[p] = Math.PI-d+d/2*(j+1)/perLevel;
+                if (L == levels-1) {
+                    from[p] = Math.PI-d+d*j/perLevel;
+                    to[p] = Math.PI-d+d*(j+1)/perLevel;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the table for k = r/R, building it on first use.
+     *
+     * @param k ratio of the trochoid
+     * @return the table, or null if k is not curtate or no table meets MAX_ERROR
+     */
+    static ChebyshevInverse forRatio(double k) {
+        if (!(k >= 0.0 && k < 1.0)) {
+            return null;
+        }
+        synchronized (tables) {
+            Double key = Double.valueOf(k);
+            if (tables.containsKey(key)) {
+                return tables.get(key);
+            }
+            ChebyshevInverse table = null;
+            try {
+                table = build(k);
+            } catch (Exception e) {
+                // leaves the solver on its own, which reports the failure per sample
+            }
+            tables.put(key, table);
+            return table;
+        }
+    }
+
+    private static ChebyshevInverse build(double k) throws Exception {
+        // the inverse turns into a cube root at the cusp as k approaches 1; halving
+        // the distance to pi until it is below (1-k)^1.5 keeps every piece smooth
+        int levels = 2+(int)Math.ceil(Math.log(Math.PI/2/Math.pow(1-k, 1.5))/Math.log(2));
+        levels = Math.max(1, Math.min(levels, 60));
+        TrochoidSolver exact = new TrochoidSolver(false, 0.0);
+        for (int n=2; n<=MAX_PIECES/(levels+2); n*=2) {
+            ChebyshevInverse table = new ChebyshevInverse(k, 2*n, levels, n);
+            table.fit(exact);
+            table.error = table.measureError(exact);
+            if (table.error <= MAX_ERROR) {
+                return table;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Computes the coefficients of every piece from exact solves at Chebyshev nodes.
+     */
+    private void fit(TrochoidSolver exact) throws Exception {
+        int n = DEGREE+1;
+        double[] values = new double[n];
+        for (int p=0; p<from.length; p++) {
+            double mid = (from[p]+to[p])/2;
+            for (int j=0; j<n; j++) {
+                double y = Math.cos(Math.PI*(j+0.5)/n);
+                values[j] = exact.solve(1.0, k, mid+y*(to[p]-from[p])/2);
+            }
+            for (int m=0; m<n; m++) {
+                double sum = 0.0;
+                for (int j=0; j<n; j++) {
+                    sum += values[j]*Math.cos(Math.PI*m*(j+0.5)/n);
+                }
+                coefs[p*n+m] = 2.0*sum/n;
+            }
+        }
+    }
+
+    /**
+     * Returns the largest difference to exact solves on a grid four times denser than the nodes.
+     */
+    private double measureError(TrochoidSolver exact) throws Exception {
+        int checks = 4*(DEGREE+1);
+        double max = 0.0;
+        for (int p=0; p<from.length; p++) {
+            for (int j=0; j<=checks; j++) {
+                double xi = from[p]+(to[p]-from[p])*j/checks;
+                max = Math.max(max, Math.abs(eval(xi)-exact.solve(1.0, k, xi)));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Returns theta with theta+k*sin(theta) = xi, to within getError().
+     *
+     * @param xi X divided by R, any value
+     */
+    public double eval(double xi) {
+        double periods = Math.rint(xi/(2*Math.PI));
+        double x = xi-periods*2*Math.PI;
+        double sign = 1.0;
+        if (x < 0) {
+            sign = -1.0;
+            x = -x;
+        }
+        int p = piece(x);
+        // Clenshaw recurrence on [-1, 1]
+        double y = (2*x-from[p]-to[p])/(to[p]-from[p]);
+        int base = p*(DEGREE+1);
+        double b1 = 0.0;
+        double b2 = 0.0;
+        for (int m=DEGREE; m>=1; m--) {
+            double b0 = 2*y*b1-b2+coefs[base+m];
+            b2 = b1;
+            b1 = b0;
+        }
+        double theta = y*b1-b2+coefs[base]/2;
+        return sign*theta+periods*2*Math.PI;
+    }
+
+    /**
+     * Returns the piece holding x in [0, pi], in constant time.
+     */
+    private int piece(double x) {
+        if (x < Math.PI/2) {
+            return Math.min((int)(x/(Math.PI/2)*uniform), uniform-1);
+        }
+        double d = Math.PI-x;
+        int L = (d > 0 ? Math.getExponent(Math.PI/2/d) : levels-1);
+        if (L >= levels-1) {
+            L = levels-1;
+            double w = Math.PI/2*Math.pow(0.5, L);
+            return uniform+L*perLevel+Math.min((int)((w-d)/w*perLevel), perLevel-1);
+        }
+        double w = Math.PI/2*Math.pow(0.5, L);
+        int j = (int)((w-d)/(w/2)*perLevel);
+        return uniform+L*perLevel+Math.max(0, Math.min(j, perLevel-1));
+    }
+
+    public double getRatio() {
+        return k;
+    }
+
+    public int getPieceCount() {
+        return from.length;
+    }
+
+    /**
+     * Returns the largest error found when the table was built, in radians.
+     */
+    public double getError() {
+        return error;
+    }
+}
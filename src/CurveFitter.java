@@ -0,0 +1,596 @@
+import java.util.Arrays;
+
+/**
+ * Fits cycloid or catenary parameters to measured points by Levenberg-Marquardt.
+ *
+ * The residual of a point is its signed distance from the curve along the
+ * normal at its foot, the parameter t of the nearest point of the curve. Each
+ * evaluation polishes every foot by a few Newton steps from the last one, and
+ * since the foot is stationary the derivative of the distance with respect to
+ * a curve parameter is just -n.dc/dp at the foot, so the Jacobian is analytic.
+ * The normal equations are accumulated in the same single pass over the points,
+ * so an iteration costs O(n) and only the feet are kept per point.
+ *
+ * Feet start from a table of the initial curve, walked from the foot of the
+ * previous point; points are expected in curve order, as CSVWriter writes them.
+ */
+class CurveFitter {
+    static final int MAX_ITERATIONS = 100;
+    static final int FOOT_ITERATIONS = 8; // Newton steps per foot and evaluation at most
+    private static final int TABLE = 4096; // samples of the initial curve searched for the first feet
+    private static final int WINDOW = 16; // table samples searched around the foot of the previous point
+    private static final double TOLERANCE = 1e-12; // relative decrease of the cost that ends the fit
+    static final double MAX_RELATIVE_RMS = 0.01; // getRelativeRms() above which a fit does not describe the points
+    private static final double GUESS_MARGIN = 0.2; // of the middle height, crossed to start a new run of a guess
+
+    /**
+     * Curve whose parameters are fitted, with the analytic derivatives the fit needs.
+     */
+    abstract static class Model {
+        /**
+         * Returns the current parameters, as a copy.
+         */
+        abstract double[] getParameters();
+
+        abstract void setParameters(double[] parameters);
+
+        /**
+         * Stores x, y, dx/dt, dy/dt, d2x/dt2 and d2y/dt2 at t into c, sharing the work common to them.
+         */
+        abstract void evaluate(double t, double[] c);
+
+        /**
+         * Stores dx/dp and dy/dp at t for every parameter p into gx and gy.
+         */
+        abstract void gradient(double t, double[] gx, double[] gy);
+
+        /**
+         * Returns {t0, t1} covering every point with X in [minX, maxX], to search feet in.
+         */
+        abstract double[] range(double minX, double maxX);
+
+        /**
+         * Guesses the parameters and feet from the points alone, for when the given ones are far off.
+         *
+         * @param points measured points, in curve order
+         * @param feet receives a foot parameter per point
+         * @return false if there is no guess, leaving the parameters as they were
+         */
+        boolean guess(PointBuffer points, double[] feet) {
+            return false;
+        }
+    }
+
+    /**
+     * PlayfairX/Y of one arch by rolling angle, with R, r and the scale of height fitted.
+     *
+     * Only R*sx, r*sx and r*sy shape the curve, so the scale of width stays as given.
+     */
+    static class TrochoidModel extends Model {
+        private double R;
+        private double r;
+        private final double sx;
+        private double sy;
+
+        TrochoidModel(double R, double r, double sx, double sy) {
+            this.R = R;
+            this.r = r;
+            this.sx = sx;
+            this.sy = sy;
+        }
+
+        double[] getParameters() {
+            return new double[] {R, r, sy};
+        }
+
+        void setParameters(double[] parameters) {
+            R = parameters[0];
+            r = parameters[1];
+            sy = parameters[2];
+        }
+
+        void evaluate(double t, double[] c) {
+            double sin = Math.sin(t);
+            double cos = Math.cos(t);
+            c[0] = (R*t+r*sin)*sx;
+            c[1] = (r*cos+r)*sy;
+            c[2] = (R+r*cos)*sx;
+            c[3] = -1*r*sin*sy;
+            c[4] = -1*r*sin*sx;
+            c[5] = -1*r*cos*sy;
+        }
+
+        void gradient(double t, double[] gx, double[] gy) {
+            double sin = Math.sin(t);
+            double cos = Math.cos(t);
+            gx[0] = t*sx;
+            gy[0] = 0.0;
+            gx[1] = sin*sx;
+            gy[1] = (cos+1)*sy;
+            gx[2] = 0.0;
+            gy[2] = r*(cos+1);
+        }
+
+        /**
+         * Reads the rolling angle of each point off its height, cos(t) = Y/(r*sy)-1, and fits R and r to X.
+         *
+         * The angle only fixes t up to its sign and a whole turn, and noise
+         * makes it wander backwards, so the points are first split at the
+         * crests and troughs: runs above and below the middle height, with a
+         * margin so that noise cannot start a new run, each hold one of them at
+         * their highest or lowest point. These sit at multiples of pi from the
+         * highest crest, which is t = 0, and the angle is read within half a
+         * turn of them. X = R*sx*t+r*sx*sin(t) is then linear in R and r.
+         */
+        boolean guess(PointBuffer points, double[] feet) {
+            int n = points.length();
+            int crest = 0;
+            for (int i=1; i<n; i++) {
+                if (points.getY(i) > points.getY(crest)) {
+                    crest = i;
+                }
+            }
+            double half = points.getY(crest)/2; // r*sy
+            if (!(half > 0)) {
+                return false;
+            }
+            // extreme[j] is the highest or lowest point of run j, which starts at start[j]
+            int[] start = new int[8];
+            int[] extreme = new int[8];
+            int runs = 0;
+            boolean high = false;
+            int crestRun = 0;
+            for (int i=0; i<n; i++) {
+                double y = points.getY(i);
+                if (runs == 0 || (high ? y < (1-GUESS_MARGIN)*half : y > (1+GUESS_MARGIN)*half)) {
+                    if (runs == start.length) {
+                        start = Arrays.copyOf(start, 2*runs);
+                        extreme = Arrays.copyOf(extreme, 2*runs);
+                    }
+                    high = (runs == 0 ? y > half : !high);
+                    start[runs] = i;
+                    extreme[runs] = i;
+                    runs++;
+                } else if (high ? y > points.getY(extreme[runs-1]) : y < points.getY(extreme[runs-1])) {
+                    extreme[runs-1] = i;
+                }
+                if (i == crest) {
+                    crestRun = runs-1;
+                }
+            }
+            for (int j=0; j<runs; j++) {
+                // runs alternate between crests, at even multiples of pi, and troughs
+                double at = Math.PI*(j-crestRun);
+                boolean trough = ((j-crestRun)%2 != 0);
+                int end = (j+1 < runs ? start[j+1] : n);
+                for (int i=start[j]; i<end; i++) {
+                    double angle = Math.acos(Math.max(-1.0, Math.min(1.0, points.getY(i)/half-1)));
+                    if (trough) {
+                        angle = Math.PI-angle;
+                    }
+                    feet[i] = (i < extreme[j] ? at-angle : at+angle);
+                }
+            }
+            double tt = 0.0;
+            double ts = 0.0;
+            double ss = 0.0;
+            double tx = 0.0;
+            double sx = 0.0;
+            for (int i=0; i<n; i++) {
+                double sin = Math.sin(feet[i]);
+                tt += feet[i]*feet[i];
+                ts += feet[i]*sin;
+                ss += sin*sin;
+                tx += feet[i]*points.getX(i);
+                sx += sin*points.getX(i);
+            }
+            double det = tt*ss-ts*ts;
+            if (!(Math.abs(det) > 0)) {
+                return false;
+            }
+            double R = (tx*ss-sx*ts)/det/this.sx;
+            double r = (tt*sx-ts*tx)/det/this.sx;
+            if (!(R > 0) || r == 0) {
+                return false;
+            }
+            setParameters(new double[] {R, r, half/r});
+            return true;
+        }
+
+        double[] range(double minX, double maxX) {
+            // X strays at most |r|*sx from R*t*sx, also within the loops
+            double t0 = (minX/sx-Math.abs(r))/R;
+            double t1 = (maxX/sx+Math.abs(r))/R;
+            return new double[] {Math.min(t0, t1), Math.max(t0, t1)};
+        }
+    }
+
+    /**
+     * CatenaryX/Y(a, t), with a and the scale of height fitted.
+     */
+    static class CatenaryModel extends Model {
+        private double a;
+        private final double sx;
+        private double sy;
+
+        CatenaryModel(double a, double sx, double sy) {
+            this.a = a;
+            this.sx = sx;
+            this.sy = sy;
+        }
+
+        double[] getParameters() {
+            return new double[] {a, sy};
+        }
+
+        void setParameters(double[] parameters) {
+            a = parameters[0];
+            sy = parameters[1];
+        }
+
+        void evaluate(double t, double[] c) {
+            // one exp serves cosh and sinh, each of which costs about as much
+            double e = Math.exp(t/a);
+            double cosh = (e+1/e)/2;
+            c[0] = t*sx;
+            c[1] = (a*cosh-a)*sy;
+            c[2] = sx;
+            c[3] = (e-1/e)/2*sy;
+            c[4] = 0.0;
+            c[5] = cosh/a*sy;
+        }
+
+        void gradient(double t, double[] gx, double[] gy) {
+            double u = t/a;
+            double e = Math.exp(u);
+            double cosh = (e+1/e)/2;
+            gx[0] = 0.0;
+            gy[0] = (cosh-u*(e-1/e)/2-1)*sy;
+            gx[1] = 0.0;
+            gy[1] = a*cosh-a;
+        }
+
+        double[] range(double minX, double maxX) {
+            return new double[] {Math.min(minX/sx, maxX/sx), Math.max(minX/sx, maxX/sx)};
+        }
+    }
+
+    private final Model model;
+    private final PointBuffer points;
+    private double[] feet; // foot parameter of each point
+    private double cost; // sum of the squared residuals at the current parameters
+    private int iterations;
+
+    /**
+     * @param model curve to fit, holding the initial parameters; receives the fitted ones
+     * @param points measured points, in curve order
+     */
+    CurveFitter(Model model, PointBuffer points) {
+        this.model = model;
+        this.points = points;
+    }
+
+    /**
+     * Fits the parameters of the model to the points and returns them.
+     *
+     * @throws IllegalArgumentException if there are fewer points than parameters
+     * @throws IllegalStateException if the fit breaks down, e.g. from a poor initial curve
+     */
+    public double[] fit() {
+        int n = points.length();
+        double[] p = model.getParameters();
+        int m = p.length;
+        if (n <= m) {
+            throw new IllegalArgumentException("fit: " + n + " points cannot fix " + m + " parameters");
+        }
+        double[] jtj = new double[m*m];
+        double[] jtr = new double[m];
+        double[] trialJtj = new double[m*m];
+        double[] trialJtr = new double[m];
+        double[] trialFeet = new double[n];
+        double[] delta = new double[m];
+        feet = new double[n];
+        findFeet();
+        cost = evaluate(feet, jtj, jtr);
+        // starts from a guess off the points instead if that fits better
+        if (model.guess(points, trialFeet)) {
+            double guessCost = evaluate(trialFeet, trialJtj, trialJtr);
+            if (guessCost < cost) {
+                double[] swap = feet;
+                feet = trialFeet;
+                trialFeet = swap;
+                swap = jtj;
+                jtj = trialJtj;
+                trialJtj = swap;
+                swap = jtr;
+                jtr = trialJtr;
+                trialJtr = swap;
+                p = model.getParameters();
+                cost = guessCost;
+            } else {
+                model.setParameters(p);
+            }
+        }
+        double lambda = 1e-3;
+        for (iterations=0; iterations<MAX_ITERATIONS; iterations++) {
+            boolean accepted = false;
+            double previous = cost;
+            while (!accepted && lambda < 1e16) {
+                if (!solve(jtj, jtr, lambda, delta)) {
+                    lambda *= 10;
+                    continue;
+                }
+                double[] trial = new double[m];
+                for (int k=0; k<m; k++) {
+                    trial[k] = p[k]-delta[k];
+                }
+                model.setParameters(trial);
+                System.arraycopy(feet, 0, trialFeet, 0, n);
+                double trialCost = evaluate(trialFeet, trialJtj, trialJtr);
+                if (trialCost < cost) {
+                    double[] swap = feet;
+                    feet = trialFeet;
+                    trialFeet = swap;
+                    swap = jtj;
+                    jtj = trialJtj;
+                    trialJtj = swap;
+                    swap = jtr;
+                    jtr = trialJtr;
+                    trialJtr = swap;
+                    p = trial;
+                    cost = trialCost;
+                    lambda = Math.max(1e-12, lambda/10);
+                    accepted = true;
+                } else {
+                    model.setParameters(p);
+                    lambda *= 10;
+                }
+            }
+            if (!accepted || previous-cost <= TOLERANCE*previous) {
+                break;
+            }
+        }
+        if (Double.isNaN(cost) || Double.isInfinite(cost)) {
+            throw new IllegalStateException("fit: did not converge");
+        }
+        model.setParameters(p);
+        return p;
+    }
+
+    /**
+     * Returns the root mean square distance of the points from the fitted curve.
+     */
+    public double getRms() {
+        return Math.sqrt(cost/points.length());
+    }
+
+    /**
+     * Returns getRms() as a fraction of the larger side of the bounding box of the points.
+     */
+    public double getRelativeRms() {
+        double minX = points.getX(0);
+        double maxX = minX;
+        double minY = points.getY(0);
+        double maxY = minY;
+        for (int i=1; i<points.length(); i++) {
+            minX = Math.min(minX, points.getX(i));
+            maxX = Math.max(maxX, points.getX(i));
+            minY = Math.min(minY, points.getY(i));
+            maxY = Math.max(maxY, points.getY(i));
+        }
+        return getRms()/Math.max(maxX-minX, maxY-minY);
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Returns the smallest foot parameter, where the fitted curve has to start to cover the points.
+     */
+    public double getMinParameter() {
+        double min = feet[0];
+        for (int i=1; i<feet.length; i++) {
+            min = Math.min(min, feet[i]);
+        }
+        return min;
+    }
+
+    /**
+     * Returns the largest foot parameter, where the fitted curve has to end to cover the points.
+     */
+    public double getMaxParameter() {
+        double max = feet[0];
+        for (int i=1; i<feet.length; i++) {
+            max = Math.max(max, feet[i]);
+        }
+        return max;
+    }
+
+    /**
+     * Starts every foot at the nearest sample of a table of the initial curve.
+     *
+     * The first point searches the whole table, every other one a window
+     * around the foot of the point before it, widened while the nearest
+     * sample is on its edge.
+     */
+    private void findFeet() {
+        int n = points.length();
+        double minX = points.getX(0);
+        double maxX = minX;
+        for (int i=1; i<n; i++) {
+            minX = Math.min(minX, points.getX(i));
+            maxX = Math.max(maxX, points.getX(i));
+        }
+        double[] range = model.range(minX, maxX);
+        double[] ts = new double[TABLE+1];
+        double[] xs = new double[TABLE+1];
+        double[] ys = new double[TABLE+1];
+        double[] c = new double[6];
+        for (int j=0; j<=TABLE; j++) {
+            ts[j] = range[0]+(range[1]-range[0])*j/TABLE;
+            model.evaluate(ts[j], c);
+            xs[j] = c[0];
+            ys[j] = c[1];
+        }
+        int nearest = nearest(xs, ys, points.getX(0), points.getY(0), 0, TABLE);
+        feet[0] = ts[nearest];
+        for (int i=1; i<n; i++) {
+            double px = points.getX(i);
+            double py = points.getY(i);
+            int from = Math.max(0, nearest-WINDOW);
+            int to = Math.min(TABLE, nearest+WINDOW);
+            nearest = nearest(xs, ys, px, py, from, to);
+            while ((nearest == from && from > 0) || (nearest == to && to < TABLE)) {
+                from = Math.max(0, nearest-WINDOW);
+                to = Math.min(TABLE, nearest+WINDOW);
+                nearest = nearest(xs, ys, px, py, from, to);
+            }
+            feet[i] = ts[nearest];
+        }
+    }
+
+    private static int nearest(double[] xs, double[] ys, double px, double py, int from, int to) {
+        int best = from;
+        double bestDistance = Double.MAX_VALUE;
+        for (int j=from; j<=to; j++) {
+            double d = (xs[j]-px)*(xs[j]-px)+(ys[j]-py)*(ys[j]-py);
+            if (d < bestDistance) {
+                bestDistance = d;
+                best = j;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Polishes the feet at the current parameters and returns the sum of the squared residuals.
+     *
+     * J'J and J'r of the residuals are accumulated into jtj (row major) and jtr on the way.
+     */
+    private double evaluate(double[] feet, double[] jtj, double[] jtr) {
+        int m = jtr.length;
+        double[] gx = new double[m];
+        double[] gy = new double[m];
+        double[] row = new double[m];
+        double[] c = new double[6];
+        Arrays.fill(jtj, 0.0);
+        Arrays.fill(jtr, 0.0);
+        double sum = 0.0;
+        for (int i=0; i<feet.length; i++) {
+            double px = points.getX(i);
+            double py = points.getY(i);
+            double t = foot(feet[i], px, py, c);
+            feet[i] = t;
+            double ex = px-c[0];
+            double ey = py-c[1];
+            double dx = c[2];
+            double dy = c[3];
+            double v = Math.sqrt(dx*dx+dy*dy);
+            double nx;
+            double ny;
+            if (v > 0) {
+                nx = -1*dy/v;
+                ny = dx/v;
+            } else {
+                // at a cusp the point itself gives the direction
+                double e = Math.sqrt(ex*ex+ey*ey);
+                nx = (e > 0 ? ex/e : 0.0);
+                ny = (e > 0 ? ey/e : 0.0);
+            }
+            double residual = nx*ex+ny*ey;
+            model.gradient(t, gx, gy);
+            for (int k=0; k<m; k++) {
+                row[k] = -1*(nx*gx[k]+ny*gy[k]);
+            }
+            for (int k=0; k<m; k++) {
+                jtr[k] += row[k]*residual;
+                for (int l=0; l<=k; l++) {
+                    jtj[k*m+l] += row[k]*row[l];
+                }
+            }
+            sum += residual*residual;
+        }
+        for (int k=0; k<m; k++) {
+            for (int l=k+1; l<m; l++) {
+                jtj[k*m+l] = jtj[l*m+k];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the foot of (px, py) by Newton's method on d|c(t)-p|^2/dt, starting from t.
+     *
+     * c is left holding the curve and its derivatives at the returned foot.
+     */
+    private double foot(double t, double px, double py, double[] c) {
+        model.evaluate(t, c);
+        for (int k=0; k<FOOT_ITERATIONS; k++) {
+            double ex = c[0]-px;
+            double ey = c[1]-py;
+            double g = c[2]*ex+c[3]*ey;
+            double speed = c[2]*c[2]+c[3]*c[3];
+            double h = c[4]*ex+c[5]*ey+speed;
+            if (!(h > 0)) {
+                // concave in t here, only a gradient step goes downhill
+                h = speed;
+                if (!(h > 0)) {
+                    break;
+                }
+            }
+            double step = g/h;
+            t -= step;
+            model.evaluate(t, c);
+            if (Math.abs(step) <= 1e-12*Math.max(1.0, Math.abs(t))) {
+                break;
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Solves (J'J+lambda*diag(J'J))delta = J'r by Gaussian elimination; false if it is singular.
+     */
+    private static boolean solve(double[] jtj, double[] jtr, double lambda, double[] delta) {
+        int m = jtr.length;
+        double[] a = new double[m*(m+1)];
+        for (int k=0; k<m; k++) {
+            for (int l=0; l<m; l++) {
+                a[k*(m+1)+l] = jtj[k*m+l];
+            }
+            a[k*(m+1)+k] += lambda*Math.max(jtj[k*m+k], 1e-300);
+            a[k*(m+1)+m] = jtr[k];
+        }
+        for (int c=0; c<m; c++) {
+            int pivot = c;
+            for (int k=c+1; k<m; k++) {
+                if (Math.abs(a[k*(m+1)+c]) > Math.abs(a[pivot*(m+1)+c])) {
+                    pivot = k;
+                }
+            }
+            if (!(Math.abs(a[pivot*(m+1)+c]) > 0)) {
+                return false;
+            }
+            for (int l=0; l<=m; l++) {
+                double swap = a[c*(m+1)+l];
+                a[c*(m+1)+l] = a[pivot*(m+1)+l];
+                a[pivot*(m+1)+l] = swap;
+            }
+            for (int k=c+1; k<m; k++) {
+                double f = a[k*(m+1)+c]/a[c*(m+1)+c];
+                for (int l=c; l<=m; l++) {
+                    a[k*(m+1)+l] -= f*a[c*(m+1)+l];
+                }
+            }
+        }
+        for (int k=m-1; k>=0; k--) {
+            double s = a[k*(m+1)+m];
+            for (int l=k+1; l<m; l++) {
+                s -= a[k*(m+1)+l]*delta[l];
+            }
+            delta[k] = s/a[k*(m+1)+k];
+        }
+        return true;
+    }
+}
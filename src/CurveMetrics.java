@@ -0,0 +1,146 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Length, enclosed area and tight bounding box of a curve, for material estimates and job costing.
+ *
+ * The range is cut at the turning points of the curve, where dx/dt or dy/dt
+ * vanishes, so every piece is smooth even across a cusp, and each piece is
+ * integrated with 8-point Gauss-Legendre quadrature on PANELS panels. The
+ * extent is read off the ends and the turning points, which are the only
+ * places a coordinate can peak. Metrics are cached by the parameters of the
+ * curve, so captions and repeated queries cost a map lookup.
+ */
+class CurveMetrics {
+    static final int PANELS = 16; // per smooth piece
+    private static final int MAX_METRICS = 16;
+
+    private static final LinkedHashMap<String, CurveMetrics> metrics =
+        new LinkedHashMap<String, CurveMetrics>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, CurveMetrics> eldest) {
+                return size() > MAX_METRICS;
+            }
+        };
+
+    private double length;
+    private double area;
+    private double minX;
+    private double maxX;
+    private double minY;
+    private double maxY;
+
+    private CurveMetrics() {
+    }
+
+    /**
+     * Returns the metrics of curve over [t0, t1], measuring it only if the key is new.
+     *
+     * @param key identifies the curve and its range, e.g. its parameters
+     * @param curve curve to measure
+     * @param t0 first parameter value
+     * @param t1 last parameter value
+     */
+    static CurveMetrics forCurve(String key, UniformKernel curve, double t0, double t1) {
+        synchronized (metrics) {
+            CurveMetrics m = metrics.get(key);
+            if (m == null) {
+                m = measure(curve, t0, t1);
+                metrics.put(key, m);
+            }
+            return m;
+        }
+    }
+
+    /**
+     * Measures curve over [t0, t1] without caching.
+     */
+    static CurveMetrics measure(final UniformKernel curve, double t0, double t1) {
+        double[] turning = curve.turningPoints(t0, t1);
+        double[] ts = new double[turning.length+2];
+        ts[0] = Math.min(t0, t1);
+        System.arraycopy(turning, 0, ts, 1, turning.length);
+        ts[ts.length-1] = Math.max(t0, t1);
+
+        CurveMetrics m = new CurveMetrics();
+        m.minX = Double.POSITIVE_INFINITY;
+        m.maxX = Double.NEGATIVE_INFINITY;
+        m.minY = Double.POSITIVE_INFINITY;
+        m.maxY = Double.NEGATIVE_INFINITY;
+        for (int i=0; i<ts.length; i++) {
+            double x = curve.x(ts[i]);
+            double y = curve.y(ts[i]);
+            m.minX = Math.min(m.minX, x);
+            m.maxX = Math.max(m.maxX, x);
+            m.minY = Math.min(m.minY, y);
+            m.maxY = Math.max(m.maxY, y);
+        }
+
+        GaussLegendre.Integrand speed = new GaussLegendre.Integrand() {
+            public double at(double t) {
+                return curve.speed(t);
+            }
+        };
+        // the area closed by the chord between the ends, by Green's theorem
+        GaussLegendre.Integrand sweep = new GaussLegendre.Integrand() {
+            public double at(double t) {
+                return curve.x(t)*curve.dy(t)-curve.y(t)*curve.dx(t);
+            }
+        };
+        double green = 0.0;
+        for (int i=0; i+1<ts.length; i++) {
+            double step = (ts[i+1]-ts[i])/PANELS;
+            for (int j=0; j<PANELS; j++) {
+                double a = ts[i]+step*j;
+                m.length += GaussLegendre.integrate(speed, a, a+step);
+                green += GaussLegendre.integrate(sweep, a, a+step);
+            }
+        }
+        double x0 = curve.x(ts[0]);
+        double y0 = curve.y(ts[0]);
+        double x1 = curve.x(ts[ts.length-1]);
+        double y1 = curve.y(ts[ts.length-1]);
+        m.area = Math.abs(green+x1*y0-y1*x0)/2;
+        return m;
+    }
+
+    /**
+     * Returns the length of the curve.
+     */
+    public double getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the area between the curve and the straight line joining its ends.
+     */
+    public double getArea() {
+        return area;
+    }
+
+    public double getMinX() {
+        return minX;
+    }
+
+    public double getMaxX() {
+        return maxX;
+    }
+
+    public double getMinY() {
+        return minY;
+    }
+
+    public double getMaxY() {
+        return maxY;
+    }
+
+    /**
+     * Returns the metrics as a caption line, converted from mm to the given unit.
+     *
+     * @param metric unit to print lengths in
+     */
+    public String toCaption(Metric metric) {
+        double unit = (metric == Metric.MM ? 1.0 : 25.4);
+        return String.format("length=%4.2f  area=%4.2f  box=%4.2f x %4.2f",
+                             length/unit, area/(unit*unit), (maxX-minX)/unit, (maxY-minY)/unit);
+    }
+}
@@ -9,8 +9,6 @@ import java.io.BufferedWriter;
 
 import javax.swing.*;
 import java.awt.*;
-import java.awt.Graphics2D;
-import java.awt.geom.Line2D;
 
 public class Cycloid extends JPanel {
     static final double PT_TO_MM = 2.8346;
@@ -23,22 +21,40 @@ public class Cycloid extends JPanel {
     private double percent;
     private double g_xs; // scale width
     private double g_ys; // scale height
-    private double minX;
-    private double maxX;
-    private double minY;
-    private double maxY;
-    private double sc;
     private boolean captionEnabled = false;
     private Metric metric;
     private PaperSize paperSize;
     private Format format;
+    private File sampleStore; // directory of MappedPointStore files, null to stream directly
+    private boolean symmetricSampling = true; // evaluate t >= 0 only and mirror the rest
+    private int arches = 1; // arches in the template; every one repeats the first
+    private double totalLength = 0.0; // template length, overrides arches when > 0
+    private double chordTolerance = 0.01; // largest distance of an exported chord from the curve, mm
+    private boolean arcLengthSpacing = false; // CSV points equally spaced along the curve, not in X
+    private boolean metricsEnabled = false; // prints length, area and extent in the caption
+    private double offsetDistance = 0.0; // router bit radius in mm, 0 for no offset curves
 
-    private final Points points;
-    private final Points pointsFile;
+    private static final int MAX_ARCH_RESOLUTION = 1 << 20;
+    private static final double PREVIEW_TOLERANCE = 1.0/32; // pixels; coarser chords show as kinks
+    private static final int MAX_EQUAL_X_RESOLUTION = 1 << 18; // rows of a cusped CSV export
+    private static final int CURVATURE_SCAN = 1024;
+
+    private final PointBuffer period; // one arch of a multi-arch template
+    private String periodKey; // parameters period was sampled for
+    private final ShapeCache shapes = new ShapeCache(); // unit trochoids for the preview
+    private final PreviewRenderer renderer = new PreviewRenderer(this);
+    private final PolylineCache polylines = PolylineCache.getShared();
+    // inverts X for equal-X exports, one solver per thread solving them
+    private final ThreadLocal<TrochoidSolver> solvers = new ThreadLocal<TrochoidSolver>() {
+        protected TrochoidSolver initialValue() {
+            return new TrochoidSolver();
+        }
+        };
+    private ArcLengthIndex arcIndex; // inverts arc length for equal-spacing exports
+    private String arcIndexKey; // parameters arcIndex was built for
 
     public Cycloid() {
-        points = new Points();
-        pointsFile = new Points();
+        period = new PointBuffer();
         cWidth = 200.00;
         cHeight = 20.0;
         R = 0.0;
@@ -46,11 +62,6 @@ public class Cycloid extends JPanel {
         percent = 110.0;
         g_xs = 1.0;
         g_ys = 1.0;
-        minX = 0.0;
-        maxX = 0.0;
-        minY = 0.0;
-        maxY = 0.0;
-        sc = 0.0;
         metric = Metric.MM;
         paperSize = PaperSize.LETTER;
         format = Format.PDF;
@@ -152,6 +163,476 @@ public class Cycloid extends JPanel {
         this.format = format;
     }
 
+    public File getSampleStore() {
+        return sampleStore;
+    }
+
+    /**
+     * Keeps exported samples in memory-mapped files under dir so that very large
+     * exports stay off the heap and identical parameters are not sampled again.
+     *
+     * @param dir store directory, or null to stream samples straight to the file
+     */
+    public void setSampleStore(File dir) {
+        this.sampleStore = dir;
+    }
+
+    public boolean isSymmetricSampling() {
+        return symmetricSampling;
+    }
+
+    /**
+     * Enables evaluating only the t >= 0 half of the curve and mirroring it.
+     *
+     * The trochoid is symmetric about t=0: PlayfairY(-t) == PlayfairY(t) and
+     * PlayfairX(-t) mirrors PlayfairX(t) around PlayfairX(0).
+     */
+    public void setSymmetricSampling(boolean enable) {
+        symmetricSampling = enable;
+    }
+
+    /**
+     * Returns the parameters PlayfairX/Y depend on, to key cached samples with.
+     */
+    public String getCurveKey() {
+        return R + " " + r + " " + percent + " " + g_xs + " " + g_ys + " " + symmetricSampling;
+    }
+
+    /**
+     * Returns the solver FilePlayfair uses on the calling thread, e.g. to read its iteration counts.
+     *
+     * Parallel exports solve on the threads of ParallelSampler, whose solvers count separately.
+     */
+    public TrochoidSolver getSolver() {
+        return solvers.get();
+    }
+
+    /**
+     * Checks that equal-X sampling is well defined over the range written to CSV.
+     */
+    public InjectivityCheck checkInjective() {
+        double percent = (this.percent > 100.0 ? this.percent/100.0 : 1.0);
+        if (isMultiArch()) {
+            // one arch is solved and repeated
+            percent = 1.0;
+        }
+        return InjectivityCheck.check(R, r, -1*Math.PI*percent, Math.PI*percent);
+    }
+
+    public double getChordTolerance() {
+        return chordTolerance;
+    }
+
+    /**
+     * Sets how far an exported chord may stray from the true curve.
+     *
+     * Exports take as many samples as the tolerance asks for instead of a fixed
+     * count: flat stretches get few vertices, the cusps many.
+     *
+     * @param tolerance largest chord deviation in mm, after scaling
+     */
+    public void setChordTolerance(double tolerance) {
+        if (tolerance > 0) {
+            this.chordTolerance = tolerance;
+        }
+    }
+
+    /**
+     * Returns the uniform samples per arch that keep every chord within the tolerance.
+     *
+     * A chord over a parameter step h strays at most h*h*|c''|/8 from the curve,
+     * and |c''| of the scaled trochoid never exceeds r*max(g_xs, g_ys).
+     */
+    public int getArchResolution() {
+        double bend = Math.abs(r)*Math.max(Math.abs(g_xs), Math.abs(g_ys));
+        if (!(bend > 0)) {
+            return 20;
+        }
+        double h = Math.sqrt(8*chordTolerance/bend);
+        return (int)Math.max(20, Math.min(MAX_ARCH_RESOLUTION, Math.ceil(2*Math.PI/h)));
+    }
+
+    /**
+     * Returns the equal X steps across span that keep every chord within the tolerance.
+     *
+     * As a function of X the trochoid bends most at the cusps, where
+     * |y''| = r/(R-r)^2; a chord dx wide strays at most dx*dx*|y''|/8 from it.
+     * At r >= R the bend is unbounded and the step count is capped.
+     *
+     * @param span X distance to cover, after scaling
+     */
+    private int getEqualXResolution(double span) {
+        double bend = (r < R ? Math.abs(r)/((R-r)*(R-r)) : Double.POSITIVE_INFINITY)
+            * Math.abs(g_ys)/(g_xs*g_xs);
+        double dx = Math.sqrt(8*chordTolerance/bend);
+        return (int)Math.max(20, Math.min(MAX_EQUAL_X_RESOLUTION, Math.ceil(Math.abs(span)/dx)));
+    }
+
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    /**
+     * Adds the length, area and extent of the template to the PDF/PS caption.
+     */
+    public void setMetricsEnabled(boolean enable) {
+        metricsEnabled = enable;
+    }
+
+    /**
+     * Returns the length, area under the chord and bounding box of the whole template.
+     *
+     * Multi-arch templates are measured over all their arches and the outer ends.
+     */
+    public CurveMetrics getMetrics() {
+        if (isMultiArch()) {
+            double[] range = getTemplateRange();
+            return CurveMetrics.forCurve("trochoid " + R + " " + r + " 1.0 " + g_xs + " " + g_ys + " "
+                                         + range[0] + " " + range[1], getKernel(1.0), range[0], range[1]);
+        }
+        return getMetrics(this.percent > 100.0 ? this.percent/100.0 : 1.0);
+    }
+
+    /**
+     * Returns {t0, t1} of a multi-arch template, in the parameter of getKernel(1.0).
+     *
+     * Arch k spans t in [2*pi*k-pi, 2*pi*k+pi]; percent extends the outer ends only.
+     */
+    double[] getTemplateRange() {
+        double a0;
+        double a1;
+        if (totalLength > 0 && cWidth > 0) {
+            a0 = 0.0;
+            a1 = totalLength/cWidth;
+        } else {
+            double percent = (this.percent > 100.0 ? this.percent/100.0 : 1.0);
+            a0 = -1*(percent-1)/2;
+            a1 = arches+(percent-1)/2;
+        }
+        return new double[] {2*Math.PI*a0-Math.PI, 2*Math.PI*a1-Math.PI};
+    }
+
+    /**
+     * Returns the metrics of PlayfairX/Y(t, percent) over t in [-pi, pi].
+     *
+     * The bounding box includes the loops of a prolate trochoid, which reach
+     * past the X of the ends.
+     *
+     * @param percent scale of t, 1.0 for one arch by rolling angle
+     */
+    public CurveMetrics getMetrics(double percent) {
+        return CurveMetrics.forCurve("trochoid " + R + " " + r + " " + percent + " " + g_xs + " " + g_ys,
+                                     getKernel(percent), -1*Math.PI, Math.PI);
+    }
+
+    /**
+     * Returns true if the tracing point lies outside the rolling circle, so that every arch loops.
+     *
+     * X then turns back within each loop, so the CSV export spaces points by
+     * arc length instead of solving for equal X.
+     */
+    public boolean isProlate() {
+        return R > 0 && Math.abs(r) > R;
+    }
+
+    /**
+     * Returns the largest curvature of the scaled trochoid, infinite at the cusps of r == R.
+     *
+     * The curvature depends on the rolling angle u only through c = cos(u),
+     * k = |sx*sy*r*(R*c+r)|/((sx*(R+r*c))^2+(sy*r)^2*(1-c^2))^1.5,
+     * which is scanned over c in [-1, 1].
+     */
+    private double getMaxCurvature() {
+        double max = 0.0;
+        for (int i=0; i<=CURVATURE_SCAN; i++) {
+            double c = 2.0*i/CURVATURE_SCAN-1;
+            double vx = g_xs*(R+r*c);
+            double vy = g_ys*r;
+            double speed2 = vx*vx+vy*vy*(1-c*c);
+            double k = Math.abs(g_xs*g_ys*r*(R*c+r))/(speed2*Math.sqrt(speed2));
+            if (!(k <= max)) {
+                max = k; // also takes 0/0 = NaN at a cusp as unbounded
+            }
+        }
+        return (Double.isNaN(max) ? Double.POSITIVE_INFINITY : max);
+    }
+
+    public double getOffsetDistance() {
+        return offsetDistance;
+    }
+
+    /**
+     * Sets the distance of the inner and outer offset curves exported with the template.
+     *
+     * @param distance router bit radius in mm, after scaling; 0 exports the curve alone
+     */
+    public void setOffsetDistance(double distance) {
+        this.offsetDistance = Math.max(0.0, distance);
+    }
+
+    /**
+     * Returns the offset of PlayfairX/Y outside the arch (above it) or inside it.
+     */
+    public OffsetCurve getOffsetCurve(boolean outer) {
+        return getOffsetCurve(this.percent > 100.0 ? this.percent/100.0 : 1.0, outer);
+    }
+
+    /**
+     * Returns the offset of PlayfairX/Y(t, percent) outside the arch or inside it.
+     *
+     * @param percent scale of t, 1.0 for one arch by rolling angle
+     * @param outer true for the outside of the arch
+     */
+    public OffsetCurve getOffsetCurve(double percent, boolean outer) {
+        // the trochoid travels towards +x, so the outside of the arch is on its left
+        return new OffsetCurve(getKernel(percent), (outer ? offsetDistance : -1*offsetDistance));
+    }
+
+    /**
+     * Traces an offset of the whole template into out, across every arch of a multi-arch one.
+     *
+     * @param outer true for the outside of the arch
+     * @param out receives the trimmed offset polyline
+     */
+    public void traceOffset(boolean outer, PointBuffer out) {
+        if (isMultiArch()) {
+            double[] range = getTemplateRange();
+            getOffsetCurve(1.0, outer).trace(range[0], range[1], chordTolerance, out);
+        } else {
+            getOffsetCurve(outer).trace(-1*Math.PI, Math.PI, chordTolerance, out);
+        }
+    }
+
+    /**
+     * Traces the offset of one arch of a multi-arch template into out.
+     *
+     * Points are in the coordinates of the first arch, as from getArchSamples().
+     *
+     * @param arch arch to trace, from 0 to getArchCount()-1
+     * @param outer true for the outside of the arch
+     * @param out receives the trimmed offset polyline
+     */
+    public void traceArchOffset(int arch, boolean outer, PointBuffer out) {
+        double[] range = getTemplateRange();
+        double t0 = (arch == 0 ? range[0] : 2*Math.PI*arch-Math.PI);
+        double t1 = (arch == getArchCount()-1 ? range[1] : 2*Math.PI*arch+Math.PI);
+        getOffsetCurve(1.0, outer).trace(t0, t1, chordTolerance, out);
+        out.transform(1.0, 1.0, -1*arch*getArchWidth(), 0.0);
+    }
+
+    public boolean isArcLengthSpacing() {
+        return arcLengthSpacing;
+    }
+
+    /**
+     * Spaces CSV points equally along the curve instead of equally in X.
+     *
+     * CNC and laser controllers feed at a constant rate per point, which equal
+     * X steps do not give on the steep flanks near the cusps.
+     */
+    public void setArcLengthSpacing(boolean enable) {
+        arcLengthSpacing = enable;
+    }
+
+    /**
+     * Returns the arc length index of PlayfairX/Y(t, percent) over t in [-pi, pi].
+     *
+     * The index is kept until the parameters change.
+     *
+     * @param percent scale of t, 1.0 for one arch by rolling angle
+     */
+    ArcLengthIndex getArcLengthIndex(double percent) {
+        String key = R + " " + r + " " + percent + " " + g_xs + " " + g_ys;
+        if (!key.equals(arcIndexKey)) {
+            arcIndex = new ArcLengthIndex(getKernel(percent), -1*Math.PI, Math.PI);
+            arcIndexKey = key;
+        }
+        return arcIndex;
+    }
+
+    /**
+     * Returns the number of equal steps along a curve of the given length keeping chords within the tolerance.
+     *
+     * A chord of length ds strays at most ds*ds*k/8 from a curve of curvature k.
+     */
+    private int getArcResolution(double length) {
+        double ds = Math.sqrt(8*chordTolerance/getMaxCurvature());
+        return (int)Math.max(20, Math.min(MAX_EQUAL_X_RESOLUTION, Math.ceil(length/ds)));
+    }
+
+    public int getArches() {
+        return arches;
+    }
+
+    /**
+     * Sets the number of arches in the template.
+     *
+     * A trochoid is periodic, so every arch after the first is the first one
+     * translated by getArchWidth(); only one arch is ever evaluated.
+     */
+    public void setArches(int arches) {
+        this.arches = Math.max(1, arches);
+    }
+
+    public double getTotalLength() {
+        return totalLength;
+    }
+
+    /**
+     * Sets the template length, in the unit of the cycloid width, instead of a number of arches.
+     *
+     * @param length length from the first cusp, or 0 to use setArches()
+     */
+    public void setTotalLength(double length) {
+        this.totalLength = length;
+    }
+
+    /**
+     * Returns true if the template repeats the arch rather than extending it by percent.
+     */
+    public boolean isMultiArch() {
+        return arches > 1 || totalLength > 0;
+    }
+
+    /**
+     * Returns the X distance from one cusp to the next.
+     */
+    public double getArchWidth() {
+        return 2*Math.PI*R*g_xs;
+    }
+
+    /**
+     * Returns the number of arches a multi-arch template spans, counting a partial one.
+     */
+    public int getArchCount() {
+        return archCount(totalLength, cWidth, arches);
+    }
+
+    private static int archCount(double totalLength, double cWidth, int arches) {
+        if (totalLength > 0 && cWidth > 0) {
+            return Math.max(1, (int)Math.ceil(totalLength/cWidth));
+        }
+        return arches;
+    }
+
+    /**
+     * Returns {first, last} sample index of a multi-arch template sampled m times per arch.
+     *
+     * Index 0 is the left cusp of the first arch and index m the cusp after it.
+     * Without a total length, percent extends the two outer ends only.
+     */
+    long[] getArchRange(int m) {
+        return archRange(m, totalLength, cWidth, percent, arches);
+    }
+
+    private static long[] archRange(int m, double totalLength, double cWidth, double percent, int arches) {
+        if (totalLength > 0 && cWidth > 0) {
+            return new long[] {0, Math.round(totalLength/cWidth*m)};
+        }
+        percent = (percent > 100.0 ? percent/100.0 : 1.0);
+        long ext = Math.round(m*(percent-1)/2);
+        return new long[] {-ext, (long)arches*m+ext};
+    }
+
+    /**
+     * Returns the samples of one arch of a multi-arch template.
+     *
+     * Points are in the coordinates of the first arch so that every page can be
+     * drawn the same way; the first and last arch include the outer ends.
+     *
+     * @param arch arch to return, from 0 to getArchCount()-1
+     * @param m samples per arch
+     */
+    public SampleStream getArchSamples(int arch, int m) {
+        sampleArch(m);
+        long[] range = getArchRange(m);
+        long first = (arch == 0 ? range[0] : (long)arch*m);
+        long last = (arch == getArchCount()-1 ? range[1] : (long)(arch+1)*m);
+        return new PeriodicSampleStream(period, m, getArchWidth(), first, last, -arch*getArchWidth());
+    }
+
+    /**
+     * Samples one arch at m equal steps of the rolling angle into period, unless
+     * it already holds them.
+     */
+    private void sampleArch(int m) {
+        String key = "angle " + R + " " + r + " " + g_xs + " " + g_ys + " " + m + " " + symmetricSampling;
+        if (key.equals(periodKey)) {
+            return;
+        }
+        if (symmetricSampling) {
+            period.fillSymmetric(getKernel(1.0), -1*Math.PI, Math.PI, m);
+        } else {
+            period.fill(getKernel(1.0), -1*Math.PI, Math.PI, m);
+        }
+        periodKey = key;
+    }
+
+    /**
+     * Solves one arch at m equal steps of X, or of arc length, into period,
+     * unless it already holds them.
+     *
+     * @param m steps per arch
+     * @param byArcLength true for equal steps of arc length
+     * @throws Exception if FilePlayfair fails
+     */
+    private void solveArch(final int m, boolean byArcLength) throws Exception {
+        String key = (byArcLength ? "arc " : "x ") + R + " " + r + " " + g_xs + " " + g_ys + " " + m
+            + " " + symmetricSampling;
+        if (key.equals(periodKey)) {
+            return;
+        }
+        periodKey = null;
+        final ArcLengthIndex index = (byArcLength ? getArcLengthIndex(1.0) : null);
+        IndexedSampleStream solved = new IndexedSampleStream(m) {
+            protected void sample(int i, Point point) throws Exception {
+                if (index != null) {
+                    FileArcPlayfair(index, index.getLength()*i/m, 1.0, point);
+                } else {
+                    FilePlayfair(2*Math.PI*i/m-Math.PI, point);
+                }
+            }
+
+            protected void sample(int from, int to, double[] xs, double[] ys, int offset) throws Exception {
+                if (index != null) {
+                    super.sample(from, to, xs, ys, offset);
+                } else {
+                    FilePlayfair(1.0, m, from, to, xs, ys, offset);
+                }
+            }
+        };
+        solved.parallel();
+        if (symmetricSampling) {
+            solved.mirrored(PlayfairX(0.0));
+        }
+        period.clear();
+        double[] xs = new double[1024];
+        double[] ys = new double[1024];
+        int n;
+        while ((n = solved.read(xs, ys)) >= 0) {
+            for (int i=0; i<n; i++) {
+                period.add(xs[i], ys[i]);
+            }
+        }
+        periodKey = key;
+    }
+
+    /**
+     * Returns PlayfairX/Y at the current parameters as a kernel for uniform sampling.
+     */
+    public UniformKernel getKernel() {
+        return getKernel(this.percent > 100.0 ? this.percent/100.0 : 1.0);
+    }
+
+    /**
+     * Returns PlayfairX/Y(t, percent) as a kernel for uniform sampling.
+     *
+     * @param percent scale of t, 1.0 for one arch by rolling angle
+     */
+    public UniformKernel getKernel(double percent) {
+        return new UniformKernel.TrochoidCurve(R, r, r, percent, g_xs, g_ys);
+    }
+
     /**
      * Function PlayfairX/Y
      * Evalues the trachoid at a t value
@@ -189,49 +670,42 @@ public class Cycloid extends JPanel {
         return y;
     }
 
+    /**
+     * Batch form of PlayfairX/Y: evaluates both at res+1 uniform steps from t0 to t1.
+     *
+     * percent is read once per call rather than once per point, and sin/cos
+     * are advanced by the recurrence of UniformKernel; long runs are split across threads.
+     *
+     * @param xs receives res+1 X coordinates
+     * @param ys receives res+1 Y coordinates
+     */
+    public void PlayfairXY(double t0, double t1, int res, double[] xs, double[] ys) {
+        ParallelSampler.sample(getKernel(), t0, t1, res, 0, res+1, xs, ys, 0);
+    }
+
+    /**
+     * Batch form of PlayfairX/Y at arbitrary t values.
+     *
+     * @param ts t values
+     * @param n number of values to evaluate
+     * @param xs receives n X coordinates
+     * @param ys receives n Y coordinates
+     */
+    public void PlayfairXY(double[] ts, int n, double[] xs, double[] ys) {
+        getKernel().eval(ts, 0, n, xs, ys);
+    }
+
     /**
      * Function FilePlayfair
      * Evalues the trachoid at a t value which is stored to a file
      * Returns both X/Y coordinates as this function is a bit expensive
+     *
+     * The rolling angle is found by the warm-started solver, so consecutive
+     * calls with increasing t cost a step or two each; exports solve runs
+     * through the batch form below, which restarts it at fixed samples.
      */
     void FilePlayfair(double t, Point point) throws Exception {
-        double t0 = 0.0; double v0 = 0.0;
-        double t1 = 0.0; double v1 = 0.0;
-        double t2 = 0.0; double v2 = 0.0;
-        double tt = 0.0; double v = 0.0;
-        int count=0;
-
-        t0 = R*(t-0.5);     v0 = t0-r*Math.cos(t0/R+Math.PI/2);
-        t1 = R*t;           v1 = t1-r*Math.cos(t1/R+Math.PI/2);
-        t2 = R*(t+0.5);     v2 = t2-r*Math.cos(t2/R+Math.PI/2);
-        if (v0 < t*R && t*R < v1) {
-            t2 = t1;    v2 = v1;
-            t1 = t0;    v1 = v0;
-        } else if (v1 < t*R && t*R < v2) {
-            // do nothing
-        } else {
-            //throw new Exception("numerical error");
-        }
-
-        while (Math.abs(v1-t*R) > 1e-6 && Math.abs(v2-t*R) > 1e-6) {
-            tt = (t*R-v1)/(v2-v1)*t2 + (v2-t*R)/(v2-v1)*t1;
-            v = tt-r*Math.cos(tt/R+Math.PI/2.0);
-            if (v > t*R) {
-                t2 = tt;    v2 = v;
-            } else {
-                t1 = tt;    v1 = v;
-            }
-            count++;
-            if (count > 1000) {
-                throw new Exception("The cycloid is not "
-                    + "one-to-one(injective) function.");
-            }
-        }
-        if (Math.abs(v1-t*R) > 1e-6) {
-            tt = v2;
-        } else {
-            tt = v1;
-        }
+        double tt = solvers.get().solve(R, r, t*R);
 
         point.X = tt-r*Math.cos(tt/R+Math.PI/2.0);
         point.Y = r*Math.sin(tt/R+Math.PI/2.0)+r;
@@ -239,63 +713,194 @@ public class Cycloid extends JPanel {
         point.Y *= g_ys;
     }
 
+    /**
+     * Solves FilePlayfair at samples from..to-1 of t = 2*pi*percent*i/res-pi*percent into xs/ys.
+     *
+     * The solver restarts cold at every multiple of UniformKernel.ANCHOR and is
+     * warmed up from the one before from, as the kernels re-anchor, so a
+     * sample is the same whichever run, and whichever thread, solves it.
+     *
+     * @param offset position of sample from in xs/ys
+     * @throws Exception if FilePlayfair fails
+     */
+    void FilePlayfair(double percent, int res, int from, int to, double[] xs, double[] ys, int offset)
+        throws Exception {
+        TrochoidSolver solver = solvers.get();
+        Point point = new Point(); // one per run, runs may be solved concurrently
+        for (int i=from-from%UniformKernel.ANCHOR; i<to; i++) {
+            if (i%UniformKernel.ANCHOR == 0) {
+                solver.restart();
+            }
+            FilePlayfair(2*Math.PI*percent*i/res-Math.PI*percent, point);
+            if (i >= from) {
+                xs[offset+i-from] = point.X;
+                ys[offset+i-from] = point.Y;
+            }
+        }
+    }
+
+    /**
+     * Function FileArcPlayfair
+     * Evaluates the trochoid at arc length s from its left end, for equal spacing along it
+     *
+     * @param index arc length index of PlayfairX/Y(t, percent)
+     * @param s arc length, from 0 to index.getLength()
+     * @param percent scale of t the index was built for
+     * @param point receives the X/Y coordinates
+     */
+    void FileArcPlayfair(ArcLengthIndex index, double s, double percent, Point point) {
+        double t = index.parameterAt(s);
+
+        point.X = PlayfairX(t, percent);
+        point.Y = PlayfairY(t, percent);
+    }
+
     /**
      * Function: draw
      * Receives Graphics object from JComponent to draw itself
+     *
+     * The curve is sampled and stroked by a PreviewRenderer off the event
+     * thread; this only copies the parameters and the last finished image.
      */
     public void paintComponent(Graphics g) {
         super.paintComponent(g);
-        double width = getWidth();
-        double height = getHeight();
-        minX = PlayfairX(-1*Math.PI);
-        maxX = PlayfairX(Math.PI);
-        minY = 0;
-        maxY = PlayfairY(0.0);
+        renderer.paint(g, new Preview(this));
+    }
 
-        int res = (int)(width/2);
+    /**
+     * The parameters the preview depends on, copied on the event thread.
+     */
+    private static final class Preview implements PreviewRenderer.Scene {
+        private final double R;
+        private final double r;
+        private final double percent;
+        private final double g_xs;
+        private final double g_ys;
+        private final boolean symmetricSampling;
+        private final int arches;
+        private final double totalLength;
+        private final double cWidth;
+        private final String curveKey;
+        private final ShapeCache shapes;
+        private final PolylineCache polylines;
 
-        if (points.length() < res) {
-            points.resize(res+1);
+        Preview(Cycloid cycloid) {
+            R = cycloid.R;
+            r = cycloid.r;
+            percent = cycloid.percent;
+            g_xs = cycloid.g_xs;
+            g_ys = cycloid.g_ys;
+            symmetricSampling = cycloid.symmetricSampling;
+            arches = cycloid.arches;
+            totalLength = cycloid.totalLength;
+            cWidth = cycloid.cWidth;
+            curveKey = cycloid.getCurveKey();
+            shapes = cycloid.shapes;
+            polylines = cycloid.polylines;
         }
 
-        // clears previous contents
-        points.clear();
-
-        for (int i=0; i<=res; i++) {
-            double x = PlayfairX(2*Math.PI*i/res-Math.PI);
-            double y = PlayfairY(2*Math.PI*i/res-Math.PI);
-            if (x < minX) minX = x;
-            if (x > maxX) maxX = x;
-            if (y < minY) minY = y;
-            if (y > maxY) maxY = y;
-            points.addPoint(new Point(x,y));
+        private boolean isMultiArch() {
+            return arches > 1 || totalLength > 0;
         }
 
-        double sx = (width-10)/(maxX-minX);
-        double sy = (height-10)/(maxY-minY);
-        if (sx < sy) {
-            sc = sx;
-        } else {
-            sc = sy;
-            // ignore offset X/Y for now
+        public String getKey() {
+            String key = curveKey;
+            if (isMultiArch()) {
+                key += " " + arches + " " + totalLength + " " + cWidth;
+            }
+            return key;
         }
-        for (int i=0; i<=res; i++) {
-            double x = points.getX(i);
-            double y = points.getY(i);
-            x = sc*(x-minX)+5;
-            y = height-(sc*(y-minY))-5;
-            points.setPoint(i, new Point(x,y));
+
+        public PointBuffer sample(int width, int height) {
+            double p = (percent > 100.0 ? percent/100.0 : 1.0);
+            UniformKernel kernel = new UniformKernel.TrochoidCurve(R, r, r, p, g_xs, g_ys);
+            double minX = kernel.x(-1*Math.PI);
+            double maxX = kernel.x(Math.PI);
+            double minY = 0;
+            double maxY = kernel.y(0.0);
+
+            int res = width/2;
+
+            // curve coordinates, shared through the cache with other repaints
+            String key = "cycloid-preview " + curveKey + " " + res + " " + height;
+            if (isMultiArch()) {
+                key += " " + arches + " " + totalLength + " " + cWidth;
+            }
+            PointBuffer curve = polylines.get(key);
+            if (curve == null) {
+                curve = new PointBuffer(res+1);
+                if (isMultiArch()) {
+                    // one arch is evaluated, the others are translated copies of it
+                    int m = Math.max(20, res/archCount(totalLength, cWidth, arches));
+                    PointBuffer period = new PointBuffer(m+1);
+                    UniformKernel arch = new UniformKernel.TrochoidCurve(R, r, r, 1.0, g_xs, g_ys);
+                    if (symmetricSampling) {
+                        period.fillSymmetric(arch, -1*Math.PI, Math.PI, m);
+                    } else {
+                        period.fill(arch, -1*Math.PI, Math.PI, m);
+                    }
+                    long[] range = archRange(m, totalLength, cWidth, percent, arches);
+                    new PeriodicSampleStream(period, m, 2*Math.PI*R*g_xs, range[0], range[1], 0.0).copyTo(curve);
+                } else if (R > 0) {
+                    // the shape only depends on r/R and percent, the size is a scale
+                    double k = r/R;
+                    double scale = Math.min((width-10)/(maxX-minX), (height-10)/(maxY-minY));
+                    double tolerance = unitTolerance(scale, Math.max(Math.abs(R*g_xs), Math.abs(r*g_ys)));
+                    PointBuffer shape = shapes.getAdaptiveShape("trochoid " + k + " " + p + " " + tolerance + " "
+                        + symmetricSampling, new UniformKernel.TrochoidCurve(1.0, k, 1.0, p, 1.0, 1.0),
+                        -1*Math.PI, Math.PI, tolerance, symmetricSampling);
+                    curve.transform(shape, R*g_xs, r*g_ys, 0.0, 0.0);
+                } else if (symmetricSampling) {
+                    curve.fillSymmetric(kernel, -1*Math.PI, Math.PI, res);
+                } else {
+                    curve.fill(kernel, -1*Math.PI, Math.PI, res);
+                }
+                polylines.put(key, curve);
+            }
+            res = curve.length()-1;
+            if (isMultiArch()) {
+                minX = curve.getX(0);
+                maxX = minX;
+            }
+            for (int i=0; i<=res; i++) {
+                double x = curve.getX(i);
+                double y = curve.getY(i);
+                if (x < minX) minX = x;
+                if (x > maxX) maxX = x;
+                if (y < minY) minY = y;
+                if (y > maxY) maxY = y;
+            }
+
+            double sx = (width-10)/(maxX-minX);
+            double sy = (height-10)/(maxY-minY);
+            double sc;
+            if (sx < sy) {
+                sc = sx;
+            } else {
+                sc = sy;
+                // ignore offset X/Y for now
+            }
+            // x = sc*(x-minX)+5, y = height-(sc*(y-minY))-5
+            PointBuffer points = new PointBuffer(res+1);
+            points.transform(curve, sc, -1*sc, 5-sc*minX, height+sc*minY-5);
+            return points;
         }
+    }
 
-        // Use Line2D since Graphics drawLine doesn't take doubles
-        Graphics2D g2 = (Graphics2D) g;
-        for (int i=1; i<=res; i++) {
-            Line2D.Double line = new Line2D.Double(points.getX(i-1),
-                                                   points.getY(i-1),
-                                                   points.getX(i),
-                                                   points.getY(i));
-            g2.draw(line);
+    /**
+     * Returns PREVIEW_TOLERANCE in the coordinates of a unit shape drawn size times larger.
+     *
+     * The scale is estimated from the cusps; the result is rounded down to a power
+     * of two so that small size changes keep hitting the same cached shape.
+     *
+     * @param scale pixels per curve unit
+     */
+    private static double unitTolerance(double scale, double size) {
+        double tolerance = PREVIEW_TOLERANCE/(scale*size);
+        if (!(tolerance > 0) || Double.isInfinite(tolerance)) {
+            return 1e-3;
         }
+        return Math.pow(2, Math.floor(Math.log(tolerance)/Math.log(2)));
     }
 
     /**
@@ -307,13 +912,17 @@ public class Cycloid extends JPanel {
         boolean whAdjusted = false;
         double prevCWidth = cWidth;
         double prevCHeight = cHeight;
+        double prevTotalLength = totalLength;
         if (metric != Metric.MM && format != Format.DXF) {
             whAdjusted = true;
             setCycloidWidth(cWidth*25.4);
             setCycloidHeight(cHeight*25.4);
+            setTotalLength(totalLength*25.4);
         }
-        double minX = PlayfairX(-1*Math.PI);
-        double maxX = PlayfairX(Math.PI);
+        // the loops of a prolate trochoid reach past the ends
+        CurveMetrics extent = getMetrics(percent > 100.0 ? percent/100.0 : 1.0);
+        double minX = extent.getMinX();
+        double maxX = extent.getMaxX();
         boolean split = false;
 
         if (g_xs*(maxX-minX) > (paperSize.getHeight()-30)/PT_TO_MM) {
@@ -345,6 +954,7 @@ public class Cycloid extends JPanel {
             if (whAdjusted) {
                 setCycloidWidth(prevCWidth);
                 setCycloidHeight(prevCHeight);
+                setTotalLength(prevTotalLength);
             }
         }
     }
@@ -355,24 +965,72 @@ public class Cycloid extends JPanel {
      * @param file the CSV filename a user specified to save cycloid constructed
      */
     void writeToCSV(File file) throws IOException {
-        int minX = (int)(-1*(getWidth()/2*percent));
-        int maxX = -1*minX;
-        int res = (maxX-minX);
-
-        if (pointsFile.length() < res) {
-            pointsFile.resize(res+1);
+        InjectivityCheck check = checkInjective();
+        // loops cannot be solved for equal X, they are spaced along the curve instead
+        final boolean byArcLength = arcLengthSpacing || isProlate();
+        if (!check.isInjective() && !byArcLength) {
+            // rejects before a single point is solved
+            JOptionPane.showMessageDialog(this,
+                "writeToCSV: " + check.getMessage(),
+                "Error",
+                JOptionPane.ERROR_MESSAGE);
+            return;
         }
 
-        pointsFile.clear(); // ArrayList.clear()
+        final double percent = (this.percent > 100.0 ? this.percent/100.0 : 1.0);
+        // multi-arch templates solve a single arch
+        double span = (isMultiArch() ? getArchWidth() : getArchWidth()*percent);
+        final ArcLengthIndex index = (byArcLength ? getArcLengthIndex(isMultiArch() ? 1.0 : percent) : null);
+        final int res = (index != null ? getArcResolution(index.getLength()) : getEqualXResolution(span));
+        // points are solved only as the writer pulls them, nothing is buffered
+        IndexedSampleStream solved = new IndexedSampleStream(res) {
+            protected void sample(int i, Point point) throws Exception {
+                if (index != null) {
+                    FileArcPlayfair(index, index.getLength()*i/res, percent, point);
+                } else {
+                    FilePlayfair(2*Math.PI*percent*i/res-Math.PI*percent, point);
+                }
+            }
 
-        double percent = (this.percent > 100.0 ? this.percent/100.0 : 1.0);
-        for (int i=0; i<=res; i++) {
+            protected void sample(int from, int to, double[] xs, double[] ys, int offset) throws Exception {
+                if (index != null) {
+                    super.sample(from, to, xs, ys, offset);
+                } else {
+                    FilePlayfair(percent, res, from, to, xs, ys, offset);
+                }
+            }
+        };
+        // warm starts restart at fixed samples, so any split of the solves gives the same points
+        solved.parallel();
+        if (symmetricSampling) {
+            // the targets are symmetric about 0, so only the non-negative half is solved
+            solved.mirrored(PlayfairX(0.0));
+        }
+        SampleStream samples = solved;
+        if (isMultiArch()) {
+            // equal X steps repeat every arch, so only the first arch is solved
             try {
-                Point point = new Point();
-                FilePlayfair(2*Math.PI*percent*i/res-Math.PI*percent, point);
-                pointsFile.addPoint(point);
+                solveArch(res, byArcLength);
             } catch (Exception e) {
-                // bails out if points are not complete
+                JOptionPane.showMessageDialog(this,
+                    "writeToCSV: " + e.getMessage(),
+                    "Error",
+                    JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            long[] range = getArchRange(res);
+            samples = new PeriodicSampleStream(period, res, getArchWidth(), range[0], range[1], 0.0);
+        } else {
+            try {
+                if (sampleStore != null) {
+                    samples = MappedPointStore.cached(sampleStore, "cycloid-csv " + R + " " + r + " "
+                        + percent + " " + g_xs + " " + g_ys + " " + res + " " + byArcLength, res+1, samples);
+                } else {
+                    samples = polylines.cached("cycloid-csv " + getCurveKey() + " " + res + " " + byArcLength,
+                                               res+1, samples);
+                }
+            } catch (Exception e) {
+                // bails out before the file is created
                 JOptionPane.showMessageDialog(this,
                     "writeToCSV: " + e.getMessage(),
                     "Error",
@@ -382,8 +1040,10 @@ public class Cycloid extends JPanel {
         }
 
         CSVWriter writer = new CSVWriter(file);
+        boolean complete = false;
         try {
-            writer.write2DPolyLine(pointsFile);
+            writer.write2DPolyLine(samples);
+            complete = true;
         } catch (Exception e) {
             JOptionPane.showMessageDialog(this,
                 "writeToCSV: " + e.getMessage(),
@@ -394,6 +1054,33 @@ public class Cycloid extends JPanel {
             if(writer != null) {
                 writer.closeFile(); // does not throw exception
             }
+            if (!complete) {
+                // bails out without leaving an incomplete file behind
+                file.delete();
+            }
+        }
+        if (complete && offsetDistance > 0) {
+            writeOffsetCSV(file);
+        }
+    }
+
+    /**
+     * Writes the inner and outer offset curves next to the CSV file, as name-inner.csv and name-outer.csv.
+     *
+     * @param file filename the user specified for the template
+     */
+    private void writeOffsetCSV(File file) {
+        try {
+            PointBuffer offset = new PointBuffer();
+            traceOffset(false, offset);
+            CSVWriter.writeSibling(file, "-inner", offset);
+            traceOffset(true, offset);
+            CSVWriter.writeSibling(file, "-outer", offset);
+        } catch (Exception e) {
+            JOptionPane.showMessageDialog(this,
+                "writeToCSV: " + e.getMessage(),
+                "Error",
+                JOptionPane.ERROR_MESSAGE);
         }
     }
 
@@ -403,26 +1090,38 @@ public class Cycloid extends JPanel {
      * @param file filename
      */
     void writeToDXF(File file) throws IOException {
-        int minX = (int)PlayfairX(-1*Math.PI);
-        int maxX = (int)PlayfairX(Math.PI);
-        int res = (int)(maxX-minX)/2;
-        if (res < 20) {
-            res = 50;
-        }
-
-        // clears previous contents
-        pointsFile.clear();
-
-        for (int i=0; i<=res; i++) {
-            double x = PlayfairX(2*Math.PI*i/res-Math.PI);
-            double y = PlayfairY(2*Math.PI*i/res-Math.PI);
-            pointsFile.addPoint(new Point(x,y));
-        }
-
         DXFWriter writer = new DXFWriter(file);
         try {
+            SampleStream stream;
+            if (isMultiArch()) {
+                int m = getArchResolution();
+                sampleArch(m);
+                long[] range = getArchRange(m);
+                stream = new PeriodicSampleStream(period, m, getArchWidth(), range[0], range[1], 0.0);
+            } else {
+                String key = "cycloid-dxf " + getCurveKey() + " " + chordTolerance;
+                PointBuffer line = polylines.get(key);
+                if (line == null) {
+                    line = new PointBuffer();
+                    AdaptiveSampler sampler = new AdaptiveSampler(getKernel(), chordTolerance, true);
+                    if (symmetricSampling) {
+                        sampler.sampleSymmetric(-1*Math.PI, Math.PI, line);
+                    } else {
+                        sampler.sample(-1*Math.PI, Math.PI, line);
+                    }
+                    polylines.put(key, line);
+                }
+                stream = line.stream();
+            }
             writer.writeHeader();
-            writer.write2DPolyLine(pointsFile);
+            writer.write2DPolyLine(stream);
+            if (offsetDistance > 0) {
+                PointBuffer offset = new PointBuffer();
+                traceOffset(false, offset);
+                writer.write2DPolyLine(offset.stream(), "INNER");
+                traceOffset(true, offset);
+                writer.write2DPolyLine(offset.stream(), "OUTER");
+            }
             writer.writeTrailer();
         } catch (Exception e) {
             JOptionPane.showMessageDialog(this,
@@ -448,7 +1147,16 @@ public class Cycloid extends JPanel {
             writer.openPDF();
             writer.setPageSize(paperSize.getHeight(), paperSize.getWidth());
 
-            if (!split) {
+            if (isMultiArch()) {
+                // one page per arch, all drawn from the same sampled arch
+                int pages = getArchCount();
+                writer.multiPageHeaders(pages);
+                for (int i=0; i<pages; i++) {
+                    writer.beginStreamObj(pages+6+i);
+                    writer.makeCycloidArchGraph(i, this);
+                    writer.endStreamObj();
+                }
+            } else if (!split) {
                 writer.simpleHeaders();
                 writer.beginStreamObj(7);
                 writer.makeCycloidGraph(0, this);
@@ -484,10 +1192,19 @@ public class Cycloid extends JPanel {
      * @param split true if split into 2 pages, false otherwise
      */
     void writeToPS(File file, boolean split) throws IOException {
-        PSWriter writer = new PSWriter(file, split);
+        PSWriter writer = new PSWriter(file, split && !isMultiArch());
         try {
-            writer.writeHeader();
-            writer.makeCycloidGraph(this);
+            if (isMultiArch()) {
+                // one page per arch, all drawn from the same sampled arch
+                writer.setPageCount(getArchCount());
+                writer.writeHeader();
+                for (int i=0; i<getArchCount(); i++) {
+                    writer.makeCycloidArchGraph(i, this);
+                }
+            } else {
+                writer.writeHeader();
+                writer.makeCycloidGraph(this);
+            }
             writer.writeTrailer();
         } catch (Exception e) {
             JOptionPane.showMessageDialog(this,
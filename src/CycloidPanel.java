@@ -1,4 +1,11 @@
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.File;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.JPanel;
 import javax.swing.*;
@@ -13,6 +20,7 @@ class CycloidPanel extends JPanel {
     private Catenary catenaryPanel;
 
     private final JButton createCycloid;
+    private final JButton fitCurve;
     private final JRadioButton mmButton;
     private final JRadioButton inchButton;
     private final JLabel widthLabel;
@@ -20,9 +28,15 @@ class CycloidPanel extends JPanel {
     private final JTextField widthText;
     private final JTextField heightText;
     private final JTextField percentText;
+    private final JTextField archesText;
+    private final JTextField lengthText;
+    private final JTextField toleranceText;
+    private final JTextField offsetText;
     private final JSlider widthSlider;
     private final JSlider heightSlider;
     private final JCheckBox captionEnable;
+    private final JCheckBox arcLengthEnable;
+    private final JCheckBox metricsEnable;
     private final JCheckBox redrawEnable;
     private final JCheckBox autoFileNameEnable;
     private final JTextField fileNameText;
@@ -37,29 +51,34 @@ class CycloidPanel extends JPanel {
     private final JRadioButton csvButton;
     private final JTextField scaleWidthText;
     private final JTextField scaleHeightText;
-
-    private boolean widthTextModified = false;
-    private boolean heightTextModified = false;
-    private boolean metricModified = false;
+    private final JRadioButton chainButton;
+    private final JRadioButton spanButton;
+    private final JRadioButton linearButton;
+    private final JTextField taperText;
+
+    private final ParameterModel model = new ParameterModel();
+    private final boolean[] dirty = new boolean[2]; // per tab, parameters changed since its last repaint
+    private final Set<String> changed = new HashSet<String>(); // model properties not shown yet
+    // runs refresh() once a frame while the model changes, however many edits the frame has
+    private final Timer refresh = new Timer(1000/60, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                refresh();
+            }
+        });
 
     private boolean redrawEnabled = true;
     // for autoFileName
     private boolean autoFileNameEnabled = true;
     private String autoFileName = "";
-    private double width = 200.00d;
-    private double height = 20.00d;
     private Format format = Format.PDF;
 
-    // for mm/inch automatic conversion
-    private boolean isMM = true;
-    private boolean isINCH = false;
-
     public CycloidPanel() {
         super(new BorderLayout());
 
         createCycloid = new JButton("Create");
         createCycloid.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
+                refresh(); // the file name of edits made this frame
                 JFileChooser fc = new JFileChooser();
                 fc.setSelectedFile(new File(autoFileName));
                 int returnVal = fc.showSaveDialog(CycloidPanel.this);
@@ -76,6 +95,18 @@ class CycloidPanel extends JPanel {
             }
             });
 
+        // fits the curve of the selected tab to measured points
+        fitCurve = new JButton("Fit");
+        fitCurve.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                JFileChooser fc = new JFileChooser();
+                int returnVal = fc.showOpenDialog(CycloidPanel.this);
+                if (returnVal == JFileChooser.APPROVE_OPTION) {
+                    fitToFile(fc.getSelectedFile());
+                }
+            }
+            });
+
         // Use JTabbedPane to display both Cycloid and Catenary under separate tabs
         drawPane = new JTabbedPane();
         cycloidPanel = new Cycloid();
@@ -84,6 +115,16 @@ class CycloidPanel extends JPanel {
         catenaryPanel = new Catenary();
         catenaryPanel.setDoubleBuffered(true);
         drawPane.addTab("Catenary", null, catenaryPanel, "Draws Catenary");
+        try {
+            // very large exports can keep their samples in memory-mapped files
+            String store = System.getProperty("cycloid.samplestore");
+            if (store != null) {
+                cycloidPanel.setSampleStore(new File(store));
+                catenaryPanel.setSampleStore(new File(store));
+            }
+        } catch (SecurityException e) {
+            // unsigned applet: keep streaming exports
+        }
         drawPane.addChangeListener(new ChangeListener() {
             public void stateChanged(ChangeEvent evt) {
                 if (widthLabel != null && heightLabel != null) {
@@ -98,95 +139,29 @@ class CycloidPanel extends JPanel {
                 if (autoFileNameEnabled) {
                     generateFileName();
                 }
+                refresh(); // the newly visible tab may have missed edits
             }
             });
         add(drawPane, BorderLayout.CENTER);
 
         JPanel topPanel = new JPanel(new BorderLayout());
         JPanel topLeftPanel = new JPanel(new BorderLayout());
-        topLeftPanel.add(createCycloid, BorderLayout.NORTH);
+        JPanel buttonPanel = new JPanel(new BorderLayout());
+        buttonPanel.add(createCycloid, BorderLayout.CENTER);
+        buttonPanel.add(fitCurve, BorderLayout.EAST);
+        topLeftPanel.add(buttonPanel, BorderLayout.NORTH);
 
         // mm/inch radio button
         mmButton = new JRadioButton("mm", true);
         mmButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                cycloidPanel.setMetric(Metric.MM);
-                catenaryPanel.setMetric(Metric.MM);
-                if (isINCH) {
-                    width *= 25.4d;
-                    height *= 25.4d;
-                    if (widthSlider != null) {
-                        metricModified = true;
-                        widthSlider.setMaximum(100000);
-                        widthSlider.setMajorTickSpacing(100);
-                        widthSlider.setMinorTickSpacing(1);
-                        widthSlider.setValue((int)(width*100));
-                        metricModified = false;
-                    }
-                    if (heightSlider != null) {
-                        metricModified = true;
-                        heightSlider.setMaximum(25000);
-                        heightSlider.setMajorTickSpacing(100);
-                        heightSlider.setMinorTickSpacing(1);
-                        heightSlider.setValue((int)(height*100));
-                        metricModified = false;
-                    }
-                }
-                isMM = true;
-                isINCH = false;
-                if (widthText != null && heightText != null) {
-                    double tmpWidth = width;
-                    double tmpHeight = height;
-                    widthTextModified = true;
-                    heightTextModified = true;
-                    widthText.setText(String.format("%4.2f", width));
-                    heightText.setText(String.format("%4.2f", height));
-                    widthTextModified = false;
-                    heightTextModified = false;
-                    width = tmpWidth;
-                    height = tmpHeight; // only show rounded value to user but keep full precision internally
-                }
+                model.setMetric(Metric.MM);
             }
             });
         inchButton = new JRadioButton("inch");
         inchButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                cycloidPanel.setMetric(Metric.INCH);
-                catenaryPanel.setMetric(Metric.INCH);
-                if (isMM) {
-                    width /= 25.4d;
-                    height /= 25.4d;
-                    if (widthSlider != null) {
-                        metricModified = true;
-                        widthSlider.setMaximum(4000);
-                        widthSlider.setMajorTickSpacing(10);
-                        widthSlider.setMinorTickSpacing(1);
-                        widthSlider.setValue((int)(width*100));
-                        metricModified = false;
-                    }
-                    if (heightSlider != null) {
-                        metricModified = true;
-                        heightSlider.setMaximum(1000);
-                        heightSlider.setMajorTickSpacing(10);
-                        heightSlider.setMinorTickSpacing(1);
-                        heightSlider.setValue((int)(height*100));
-                        metricModified = false;
-                    }
-                }
-                isMM = false;
-                isINCH = true;
-                if (widthText != null && heightText != null) {
-                    double tmpWidth = width;
-                    double tmpHeight = height;
-                    widthTextModified = true;
-                    heightTextModified = true;
-                    widthText.setText(String.format("%4.2f", width));
-                    heightText.setText(String.format("%4.2f", height));
-                    widthTextModified = false;
-                    heightTextModified = false;
-                    width = tmpWidth;
-                    height = tmpHeight; // remember full precision
-                }
+                model.setMetric(Metric.INCH);
             }
             });
         ButtonGroup mmInchGroup = new ButtonGroup();
@@ -203,46 +178,13 @@ class CycloidPanel extends JPanel {
         JPanel widthPanel = new JPanel(new FlowLayout());
         widthPanel.add(widthLabel);
         widthText = new JTextField(6);
-        widthText.getDocument().addDocumentListener(new DocumentListener() {
-            public void insertUpdate(DocumentEvent e) {
-                widthTextModified = true;
-                width = Double.parseDouble(widthText.getText());
-                cycloidPanel.setCycloidWidth(width);
-                catenaryPanel.setCatenaryLength(width);
-                if (redrawEnabled) {
-                    cycloidPanel.repaint();
-                    catenaryPanel.repaint();
-                }
-                if (widthSlider != null) widthSlider.setValue((int)(width*100));
-                if (autoFileNameEnabled) {
-                    generateFileName();
-                }
-                widthTextModified = false;
+        widthText.getDocument().addDocumentListener(new ModelField(widthText) {
+            double get() {
+                return model.getWidth();
             }
-            public void removeUpdate(DocumentEvent e) {
-                widthTextModified = true;
-                // prevent NullPointerException when a user erases all text in the field
-                if (widthText.getText().length() == 0) {
-                    cycloidPanel.setCycloidWidth(0.00);
-                    catenaryPanel.setCatenaryLength(0.00);
-                    width = 0.00d;
-                    if (widthSlider != null) widthSlider.setValue(0);
-                } else {
-                    width = Double.parseDouble(widthText.getText());
-                    cycloidPanel.setCycloidWidth(width);
-                    catenaryPanel.setCatenaryLength(width);
-                    if (redrawEnabled) {
-                        cycloidPanel.repaint();
-                        catenaryPanel.repaint();
-                    }
-                    if (widthSlider != null) widthSlider.setValue((int)(width*100));
-                }
-                if (autoFileNameEnabled) {
-                    generateFileName();
-                }
-                widthTextModified = false;
+            void set(double value) {
+                model.setWidth(value);
             }
-            public void changedUpdate(DocumentEvent e) {}
             });
         widthText.setText("200.00");
         widthPanel.add(widthText);
@@ -250,45 +192,13 @@ class CycloidPanel extends JPanel {
         JPanel heightPanel = new JPanel(new FlowLayout());
         heightPanel.add(heightLabel);
         heightText = new JTextField(6);
-        heightText.getDocument().addDocumentListener(new DocumentListener() {
-            public void insertUpdate(DocumentEvent e) {
-                heightTextModified = true;
-                height = Double.parseDouble(heightText.getText());
-                cycloidPanel.setCycloidHeight(height);
-                catenaryPanel.setCatenaryDepth(height);
-                if (redrawEnabled) {
-                    cycloidPanel.repaint();
-                    catenaryPanel.repaint();
-                }
-                if (heightSlider != null) heightSlider.setValue((int)(height*100));
-                if (autoFileNameEnabled) {
-                    generateFileName();
-                }
-                heightTextModified = false;
+        heightText.getDocument().addDocumentListener(new ModelField(heightText) {
+            double get() {
+                return model.getHeight();
             }
-            public void removeUpdate(DocumentEvent e) {
-                heightTextModified = true;
-                if (heightText.getText().length() == 0) {
-                    cycloidPanel.setCycloidHeight(0.00);
-                    catenaryPanel.setCatenaryDepth(0.00);
-                    height = 0.00d;
-                    if (heightSlider != null) heightSlider.setValue(0);
-                } else {
-                    height = Double.parseDouble(heightText.getText());
-                    cycloidPanel.setCycloidHeight(height);
-                    catenaryPanel.setCatenaryDepth(height);
-                    if (redrawEnabled) {
-                        cycloidPanel.repaint();
-                        catenaryPanel.repaint();
-                    }
-                    if (heightSlider != null) heightSlider.setValue((int)(height*100));
-                }
-                if (autoFileNameEnabled) {
-                    generateFileName();
-                }
-                heightTextModified = false;
+            void set(double value) {
+                model.setHeight(value);
             }
-            public void changedUpdate(DocumentEvent e) {}
             });
         heightText.setText("20.00");
         heightPanel.add(heightText);
@@ -298,8 +208,10 @@ class CycloidPanel extends JPanel {
         widthSlider.setMinorTickSpacing(1);
         widthSlider.addChangeListener(new ChangeListener() {
             public void stateChanged(ChangeEvent evt) {
-                JSlider s = (JSlider)evt.getSource();
-                if (!widthTextModified && !metricModified) widthText.setText(Double.toString((double)s.getValue()/100));
+                // moved by the user rather than by refresh()
+                if (widthSlider.getValue() != sliderValue(widthSlider, model.getWidth())) {
+                    model.setWidth(widthSlider.getValue()/100.0);
+                }
             }
             });
         heightSlider = new JSlider(JSlider.HORIZONTAL, 0, 25000, 2000);
@@ -307,8 +219,9 @@ class CycloidPanel extends JPanel {
         heightSlider.setMinorTickSpacing(1);
         heightSlider.addChangeListener(new ChangeListener() {
             public void stateChanged(ChangeEvent evt) {
-                JSlider s = (JSlider)evt.getSource();
-                if (!heightTextModified && !metricModified) heightText.setText(Double.toString((double)s.getValue()/100));
+                if (heightSlider.getValue() != sliderValue(heightSlider, model.getHeight())) {
+                    model.setHeight(heightSlider.getValue()/100.0);
+                }
             }
             });
 
@@ -332,31 +245,85 @@ class CycloidPanel extends JPanel {
         percentPanel.add(percentLabel);
         percentText = new JTextField(6);
         percentText.setText("110.0");
-        percentText.getDocument().addDocumentListener(new DocumentListener() {
+        percentText.getDocument().addDocumentListener(new ModelField(percentText) {
+            double get() {
+                return model.getPercent();
+            }
+            void set(double value) {
+                model.setPercent(value);
+            }
+            });
+        percentPanel.add(percentText);
+
+        // arches text box, only the cycloid repeats
+        JLabel archesLabel = new JLabel("Arches");
+        percentPanel.add(archesLabel);
+        archesText = new JTextField(3);
+        archesText.setText("1");
+        archesText.getDocument().addDocumentListener(new ModelField(archesText) {
+            double get() {
+                return model.getArches();
+            }
+            void set(double value) {
+                model.setArches((int)value);
+            }
+            });
+        percentPanel.add(archesText);
+
+        // template length instead of a number of arches, 0 to use arches
+        JLabel lengthLabel = new JLabel("Total length"); // "Length" is the catenary width
+        percentPanel.add(lengthLabel);
+        lengthText = new JTextField(5);
+        lengthText.setText("0");
+        lengthText.getDocument().addDocumentListener(new ModelField(lengthText) {
+            double get() {
+                return model.getTotalLength();
+            }
+            void set(double value) {
+                model.setTotalLength(value);
+            }
+            });
+        percentPanel.add(lengthText);
+
+        // chord tolerance of exported files, in mm; the preview is not affected
+        JLabel toleranceLabel = new JLabel("Tolerance");
+        percentPanel.add(toleranceLabel);
+        toleranceText = new JTextField(4);
+        toleranceText.setText("0.01");
+        toleranceText.getDocument().addDocumentListener(new DocumentListener() {
             public void insertUpdate(DocumentEvent e) {
-                cycloidPanel.setPercent(Double.parseDouble(percentText.getText()));
-                catenaryPanel.setPercent(Double.parseDouble(percentText.getText()));
-                if (redrawEnabled) {
-                    cycloidPanel.repaint();
-                    catenaryPanel.repaint();
+                cycloidPanel.setChordTolerance(Double.parseDouble(toleranceText.getText()));
+                catenaryPanel.setChordTolerance(Double.parseDouble(toleranceText.getText()));
+            }
+            public void removeUpdate(DocumentEvent e) {
+                if (toleranceText.getText().length() > 0) {
+                    cycloidPanel.setChordTolerance(Double.parseDouble(toleranceText.getText()));
+                    catenaryPanel.setChordTolerance(Double.parseDouble(toleranceText.getText()));
                 }
             }
+            public void changedUpdate(DocumentEvent e) {}
+            });
+        percentPanel.add(toleranceText);
+
+        // router bit radius of exported offset curves, in mm; 0 exports the curve alone
+        JLabel offsetLabel = new JLabel("Offset");
+        percentPanel.add(offsetLabel);
+        offsetText = new JTextField(4);
+        offsetText.setText("0");
+        offsetText.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) {
+                cycloidPanel.setOffsetDistance(Double.parseDouble(offsetText.getText()));
+                catenaryPanel.setOffsetDistance(Double.parseDouble(offsetText.getText()));
+            }
             public void removeUpdate(DocumentEvent e) {
-                if (percentText.getText().length() == 0) {
-                    cycloidPanel.setPercent(0.00);
-                    catenaryPanel.setPercent(0.00);
-                } else {
-                    cycloidPanel.setPercent(Double.parseDouble(percentText.getText()));
-                    catenaryPanel.setPercent(Double.parseDouble(percentText.getText()));
-                    if (redrawEnabled) {
-                        cycloidPanel.repaint();
-                        catenaryPanel.repaint();
-                    }
+                if (offsetText.getText().length() > 0) {
+                    cycloidPanel.setOffsetDistance(Double.parseDouble(offsetText.getText()));
+                    catenaryPanel.setOffsetDistance(Double.parseDouble(offsetText.getText()));
                 }
             }
             public void changedUpdate(DocumentEvent e) {}
             });
-        percentPanel.add(percentText);
+        percentPanel.add(offsetText);
         topRightPanel.add(percentPanel, BorderLayout.CENTER);
 
         // Caption/Redraw checkboxes
@@ -372,13 +339,32 @@ class CycloidPanel extends JPanel {
             public void itemStateChanged(ItemEvent e) {
                 redrawEnabled = e.getStateChange() == ItemEvent.SELECTED;
                 if (redrawEnabled) {
-                    cycloidPanel.repaint();
-                    catenaryPanel.repaint();
+                    refresh();
                 }
             }
             });
+        // CSV points equally spaced along the curve rather than in X
+        arcLengthEnable = new JCheckBox("Arc Length");
+        arcLengthEnable.addItemListener(new ItemListener() {
+            public void itemStateChanged(ItemEvent e) {
+                cycloidPanel.setArcLengthSpacing(e.getStateChange() == ItemEvent.SELECTED);
+                catenaryPanel.setArcLengthSpacing(e.getStateChange() == ItemEvent.SELECTED);
+            }
+            });
+        // length, area and extent under the caption
+        metricsEnable = new JCheckBox("Metrics");
+        metricsEnable.addItemListener(new ItemListener() {
+            public void itemStateChanged(ItemEvent e) {
+                cycloidPanel.setMetricsEnabled(e.getStateChange() == ItemEvent.SELECTED);
+                catenaryPanel.setMetricsEnabled(e.getStateChange() == ItemEvent.SELECTED);
+            }
+            });
+        JPanel captionPanel = new JPanel(new BorderLayout());
+        captionPanel.add(captionEnable, BorderLayout.WEST);
+        captionPanel.add(metricsEnable, BorderLayout.EAST);
         JPanel crPanel = new JPanel(new BorderLayout());
-        crPanel.add(captionEnable, BorderLayout.NORTH);
+        crPanel.add(captionPanel, BorderLayout.NORTH);
+        crPanel.add(arcLengthEnable, BorderLayout.CENTER);
         crPanel.add(redrawEnable, BorderLayout.SOUTH);
         topRightPanel.add(crPanel, BorderLayout.SOUTH);
 
@@ -538,29 +524,13 @@ class CycloidPanel extends JPanel {
 
         JLabel scaleWidthLabel = new JLabel("Scale width:");
         scaleWidthText = new JTextField(6);
-        scaleWidthText.getDocument().addDocumentListener(new DocumentListener() {
-            public void insertUpdate(DocumentEvent e) {
-                cycloidPanel.setScaleWidth(Double.parseDouble(scaleWidthText.getText()));
-                catenaryPanel.setScaleWidth(Double.parseDouble(scaleWidthText.getText()));
-                if (redrawEnabled) {
-                    cycloidPanel.repaint();
-                    catenaryPanel.repaint();
-                }
+        scaleWidthText.getDocument().addDocumentListener(new ModelField(scaleWidthText) {
+            double get() {
+                return model.getScaleWidth();
             }
-            public void removeUpdate(DocumentEvent e) {
-                if (scaleWidthText.getText().length() == 0) {
-                    cycloidPanel.setScaleWidth(1.00);
-                    catenaryPanel.setScaleWidth(1.00);
-                } else {
-                    cycloidPanel.setScaleWidth(Double.parseDouble(scaleWidthText.getText()));
-                    catenaryPanel.setScaleWidth(Double.parseDouble(scaleWidthText.getText()));
-                    if (redrawEnabled) {
-                        cycloidPanel.repaint();
-                        catenaryPanel.repaint();
-                    }
-                }
+            void set(double value) {
+                model.setScaleWidth(value);
             }
-            public void changedUpdate(DocumentEvent e) {}
             });
         scaleWidthText.setText("1.000");
         scaleWidthPanel.add(scaleWidthLabel);
@@ -568,35 +538,62 @@ class CycloidPanel extends JPanel {
 
         JLabel scaleHeightLabel = new JLabel("Scale height:");
         scaleHeightText = new JTextField(6);
-        scaleHeightText.getDocument().addDocumentListener(new DocumentListener() {
-            public void insertUpdate(DocumentEvent e) {
-                cycloidPanel.setScaleHeight(Double.parseDouble(scaleHeightText.getText()));
-                catenaryPanel.setScaleHeight(Double.parseDouble(scaleHeightText.getText()));
-                if (redrawEnabled) {
-                    cycloidPanel.repaint();
-                    catenaryPanel.repaint();
-                }
+        scaleHeightText.getDocument().addDocumentListener(new ModelField(scaleHeightText) {
+            double get() {
+                return model.getScaleHeight();
             }
-            public void removeUpdate(DocumentEvent e) {
-                if (scaleHeightText.getText().length() == 0) {
-                    cycloidPanel.setScaleHeight(1.00);
-                    catenaryPanel.setScaleHeight(1.00);
-                } else {
-                    cycloidPanel.setScaleHeight(Double.parseDouble(scaleHeightText.getText()));
-                    catenaryPanel.setScaleHeight(Double.parseDouble(scaleHeightText.getText()));
-                    if (redrawEnabled) {
-                        cycloidPanel.repaint();
-                        catenaryPanel.repaint();
-                    }
-                }
+            void set(double value) {
+                model.setScaleHeight(value);
             }
-            public void changedUpdate(DocumentEvent e) {}
             });
         scaleHeightText.setText("1.000");
         scaleHeightPanel.add(scaleHeightLabel);
         scaleHeightPanel.add(scaleHeightText);
 
+        // load of the catenary: uniform chain, deck hung from it, or linearly heavier chain
+        JPanel loadPanel = new JPanel(new FlowLayout());
+        chainButton = new JRadioButton("Chain", true);
+        chainButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                model.setLoad(Load.CHAIN);
+            }
+            });
+        spanButton = new JRadioButton("Span");
+        spanButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                model.setLoad(Load.SPAN);
+            }
+            });
+        linearButton = new JRadioButton("Linear");
+        linearButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                model.setLoad(Load.LINEAR);
+            }
+            });
+        ButtonGroup loadGroup = new ButtonGroup();
+        loadGroup.add(chainButton);
+        loadGroup.add(spanButton);
+        loadGroup.add(linearButton);
+
+        JLabel taperLabel = new JLabel("Taper");
+        taperText = new JTextField(4);
+        taperText.setText("0.5");
+        taperText.getDocument().addDocumentListener(new ModelField(taperText) {
+            double get() {
+                return model.getTaper();
+            }
+            void set(double value) {
+                model.setTaper(value);
+            }
+            });
+        loadPanel.add(chainButton);
+        loadPanel.add(spanButton);
+        loadPanel.add(linearButton);
+        loadPanel.add(taperLabel);
+        loadPanel.add(taperText);
+
         scalePanel.add(scaleWidthPanel, BorderLayout.WEST);
+        scalePanel.add(loadPanel, BorderLayout.CENTER);
         scalePanel.add(scaleHeightPanel, BorderLayout.EAST);
 
         // settings panel -> file/scale panel
@@ -610,16 +607,291 @@ class CycloidPanel extends JPanel {
         topPanel.add(topRightPanel, BorderLayout.EAST);
         topPanel.add(settingsPanel, BorderLayout.SOUTH);
         add(topPanel, BorderLayout.SOUTH);
+
+        model.addPropertyChangeListener(new PropertyChangeListener() {
+            public void propertyChange(PropertyChangeEvent evt) {
+                apply(evt.getPropertyName());
+                changed.add(evt.getPropertyName());
+                if (!refresh.isRunning()) {
+                    refresh.start();
+                }
+            }
+            });
+        for (String name : ParameterModel.PROPERTIES) {
+            apply(name);
+        }
+    }
+
+    /**
+     * Passes a property of the model to the tabs which use it, and marks their previews dirty.
+     *
+     * The setters of the tabs only store the value, so every tab is kept up to
+     * date for exports; sampling waits until a tab is painted.
+     */
+    private void apply(String name) {
+        // 0 - cycloid; 1 - catenary
+        if (ParameterModel.WIDTH.equals(name)) {
+            cycloidPanel.setCycloidWidth(model.getWidth());
+            catenaryPanel.setCatenaryLength(model.getWidth());
+            dirty[0] = dirty[1] = true;
+        } else if (ParameterModel.HEIGHT.equals(name)) {
+            cycloidPanel.setCycloidHeight(model.getHeight());
+            catenaryPanel.setCatenaryDepth(model.getHeight());
+            dirty[0] = dirty[1] = true;
+        } else if (ParameterModel.PERCENT.equals(name)) {
+            cycloidPanel.setPercent(model.getPercent());
+            catenaryPanel.setPercent(model.getPercent());
+            dirty[0] = dirty[1] = true;
+        } else if (ParameterModel.ARCHES.equals(name)) {
+            cycloidPanel.setArches(model.getArches());
+            dirty[0] = true;
+        } else if (ParameterModel.TOTAL_LENGTH.equals(name)) {
+            cycloidPanel.setTotalLength(model.getTotalLength());
+            dirty[0] = true;
+        } else if (ParameterModel.SCALE_WIDTH.equals(name)) {
+            cycloidPanel.setScaleWidth(model.getScaleWidth());
+            catenaryPanel.setScaleWidth(model.getScaleWidth());
+            dirty[0] = dirty[1] = true;
+        } else if (ParameterModel.SCALE_HEIGHT.equals(name)) {
+            cycloidPanel.setScaleHeight(model.getScaleHeight());
+            catenaryPanel.setScaleHeight(model.getScaleHeight());
+            dirty[0] = dirty[1] = true;
+        } else if (ParameterModel.METRIC.equals(name)) {
+            cycloidPanel.setMetric(model.getMetric());
+            catenaryPanel.setMetric(model.getMetric());
+        } else if (ParameterModel.LOAD.equals(name)) {
+            catenaryPanel.setLoad(model.getLoad());
+            dirty[1] = true;
+        } else if (ParameterModel.TAPER.equals(name)) {
+            catenaryPanel.setTaper(model.getTaper());
+            dirty[1] = true;
+        }
+    }
+
+    /**
+     * Shows the model changes since the last refresh: fields, sliders, file name and the visible preview.
+     *
+     * Hidden tabs stay dirty until they are selected.
+     */
+    private void refresh() {
+        refresh.stop();
+        boolean inch = model.getMetric() == Metric.INCH;
+        if (changed.contains(ParameterModel.WIDTH)) {
+            // only show rounded value to user but keep full precision internally
+            showValue(widthText, String.format("%4.2f", model.getWidth()), model.getWidth());
+            showSlider(widthSlider, model.getWidth(), (inch ? 4000 : 100000), (inch ? 10 : 100));
+        }
+        if (changed.contains(ParameterModel.HEIGHT)) {
+            showValue(heightText, String.format("%4.2f", model.getHeight()), model.getHeight());
+            showSlider(heightSlider, model.getHeight(), (inch ? 1000 : 25000), (inch ? 10 : 100));
+        }
+        if (changed.contains(ParameterModel.TOTAL_LENGTH)) {
+            showValue(lengthText, String.format("%4.2f", model.getTotalLength()), model.getTotalLength());
+        }
+        if (changed.contains(ParameterModel.PERCENT)) {
+            showValue(percentText, String.format("%.1f", model.getPercent()), model.getPercent());
+        }
+        if (changed.contains(ParameterModel.SCALE_WIDTH)) {
+            showValue(scaleWidthText, String.format("%.3f", model.getScaleWidth()), model.getScaleWidth());
+        }
+        if (changed.contains(ParameterModel.SCALE_HEIGHT)) {
+            showValue(scaleHeightText, String.format("%.3f", model.getScaleHeight()), model.getScaleHeight());
+        }
+        if (autoFileNameEnabled
+            && (changed.contains(ParameterModel.WIDTH) || changed.contains(ParameterModel.HEIGHT))) {
+            generateFileName();
+        }
+        changed.clear();
+
+        int tab = drawPane.getSelectedIndex();
+        if (redrawEnabled && tab >= 0 && dirty[tab]) {
+            dirty[tab] = false;
+            drawPane.getComponentAt(tab).repaint();
+        }
+    }
+
+    /**
+     * Sets the text of a field to value, unless it already shows it.
+     */
+    private static void showValue(JTextField field, String text, double value) {
+        if (!shows(field.getText(), value)) {
+            field.setText(text);
+        }
+    }
+
+    /**
+     * Returns true if text is value, rounded to the decimals the text has.
+     */
+    private static boolean shows(String text, double value) {
+        try {
+            BigDecimal shown = new BigDecimal(text.trim());
+            return BigDecimal.valueOf(value).setScale(Math.max(0, shown.scale()), RoundingMode.HALF_UP)
+                .compareTo(shown) == 0;
+        } catch (NumberFormatException e) {
+            return false; // not a number, or value is NaN or infinite
+        }
+    }
+
+    /**
+     * Moves a slider in hundredths to value, with the range of the current metric.
+     */
+    private static void showSlider(JSlider slider, double value, int maximum, int spacing) {
+        slider.setMajorTickSpacing(spacing);
+        slider.setMinorTickSpacing(1);
+        // value and range at once, so that no intermediate value reaches the listener
+        slider.getModel().setRangeProperties((int)Math.max(0, Math.min(maximum, Math.round(value*100))),
+                                             0, 0, maximum, false);
+    }
+
+    /**
+     * Returns the position of a slider in hundredths which shows value.
+     */
+    private static int sliderValue(JSlider slider, double value) {
+        return (int)Math.max(slider.getMinimum(), Math.min(slider.getMaximum(), Math.round(value*100)));
+    }
+
+    /**
+     * Passes the text of a field to the model once it holds a number.
+     *
+     * Text which is the model value rounded, as refresh() shows it, leaves the
+     * full precision value alone.
+     */
+    private abstract static class ModelField implements DocumentListener {
+        private final JTextField field;
+
+        ModelField(JTextField field) {
+            this.field = field;
+        }
+
+        abstract double get();
+
+        abstract void set(double value);
+
+        public void insertUpdate(DocumentEvent e) {
+            update();
+        }
+
+        public void removeUpdate(DocumentEvent e) {
+            update();
+        }
+
+        public void changedUpdate(DocumentEvent e) {}
+
+        private void update() {
+            String text = field.getText().trim();
+            try {
+                double value = Double.parseDouble(text);
+                if (!shows(text, get())) {
+                    set(value);
+                }
+            } catch (NumberFormatException e) {
+                // empty or incomplete, keep the last value until the user is done typing
+            }
+        }
+    }
+
+    /**
+     * Fits the curve of the selected tab to the points of a CSV file and fills in the fitted parameters.
+     *
+     * The points are in mm, as CSV files are written; the current parameters
+     * are where the fit starts. They are read here, the file is read and
+     * fitted by a SwingWorker, and the result goes to the model on the event
+     * thread. The Fit button is disabled meanwhile.
+     *
+     * @param file CSV file of measured points
+     */
+    private void fitToFile(final File file) {
+        final int tab = drawPane.getSelectedIndex();
+        final double unit = (model.getMetric() == Metric.MM ? 1.0 : 25.4);
+        final double R = cycloidPanel.getR()*unit;
+        final double r = cycloidPanel.getr()*unit;
+        final double a = catenaryPanel.getA()*unit;
+        final double sx = (tab == 0 ? cycloidPanel.getScaleWidth() : catenaryPanel.getScaleWidth());
+        final double sy = (tab == 0 ? cycloidPanel.getScaleHeight() : catenaryPanel.getScaleHeight());
+        final double percent = (catenaryPanel.getPercent() > 100.0 ? catenaryPanel.getPercent()/100.0 : 1.0);
+        fitCurve.setEnabled(false);
+        new SwingWorker<double[], Void>() {
+            private int count;
+            private CurveFitter fitter;
+
+            /**
+             * Returns the fitted width, height, scale height and percent, the last NaN to keep it.
+             */
+            protected double[] doInBackground() throws Exception {
+                PointBuffer points = CSVReader.read(file);
+                count = points.length();
+                if (tab == 0) {
+                    fitter = new CurveFitter(new CurveFitter.TrochoidModel(R, r, sx, sy), points);
+                    double[] p = fitter.fit();
+                    if (!(p[0] > 0 && p[1] > 0)) {
+                        throw new IllegalStateException("fit: no cycloid matches the points");
+                    }
+                    checkRms("cycloid");
+                    // equal X points of percent p span X = +-pi*R*sx*p/100
+                    double extent = 0.0;
+                    for (int i=0; i<points.length(); i++) {
+                        extent = Math.max(extent, Math.abs(points.getX(i)));
+                    }
+                    return new double[] {2*Math.PI*p[0]/unit, 2*p[1]/unit, p[2],
+                                         Math.max(100.0, 100*extent/(Math.PI*p[0]*Math.abs(sx)))};
+                }
+                fitter = new CurveFitter(new CurveFitter.CatenaryModel((a > 0 ? a : 100.0), sx, sy), points);
+                double[] p = fitter.fit();
+                if (!(p[0] > 0)) {
+                    throw new IllegalStateException("fit: no catenary matches the points");
+                }
+                checkRms("catenary");
+                // the points span the length times percent, as CSV files do
+                double half = Math.max(-1*fitter.getMinParameter(), fitter.getMaxParameter())/percent;
+                return new double[] {2*half/unit, (p[0]*Math.cosh(half/p[0])-p[0])/unit, p[1], Double.NaN};
+            }
+
+            /**
+             * Rejects a fit that stays too far from the points to be applied, e.g. from a wrong start.
+             */
+            private void checkRms(String curve) {
+                if (fitter.getRelativeRms() > CurveFitter.MAX_RELATIVE_RMS) {
+                    throw new IllegalStateException(String.format(
+                        "fit: the closest %s stays %.4f mm rms from the points; nothing was changed",
+                        curve, fitter.getRms()));
+                }
+            }
+
+            protected void done() {
+                fitCurve.setEnabled(true);
+                try {
+                    double[] fitted = get();
+                    model.setWidth(fitted[0]);
+                    model.setHeight(fitted[1]);
+                    model.setScaleHeight(fitted[2]);
+                    if (!Double.isNaN(fitted[3])) {
+                        model.setPercent(fitted[3]);
+                    }
+                    JOptionPane.showMessageDialog(CycloidPanel.this,
+                        String.format("Fitted %d points in %d iterations, rms distance %.4f mm",
+                                      count, fitter.getIterations(), fitter.getRms()),
+                        "Fit",
+                        JOptionPane.INFORMATION_MESSAGE);
+                } catch (InterruptedException e) {
+                    // not cancelled anywhere; nothing to apply
+                } catch (ExecutionException e) {
+                    JOptionPane.showMessageDialog(CycloidPanel.this,
+                        e.getCause().getMessage(),
+                        "Error",
+                        JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
     }
 
     private void generateFileName() {
         // 0 - cycloid; 1 - catenary
         if (drawPane.getSelectedIndex() == 0) {
             autoFileName = "cycloid";
-            autoFileName += String.format("-w%4.2f-h%4.2f", width, height);
+            autoFileName += String.format("-w%4.2f-h%4.2f", model.getWidth(), model.getHeight());
         } else {
             autoFileName = "catenary";
-            autoFileName += String.format("-l%4.2f-d%4.2f", width, height);
+            autoFileName += String.format("-l%4.2f-d%4.2f", model.getWidth(), model.getHeight());
         }
         switch (format) {
             case PDF:
@@ -9,7 +9,19 @@ import javax.swing.JOptionPane;
  * A DXF file writer for Cycloid applet
  */
 class DXFWriter {
+    private static final int CHUNK = 4096; // samples pulled from a SampleStream at once
     private final PrintWriter writer; // this will never change for each instance
+    private String layer = "0"; // layer of the polyline being written
+
+    // prints one VERTEX entity per point; shared by every pass so writing never allocates
+    private final DoubleBiConsumer vertex = new DoubleBiConsumer() {
+        public void accept(double x, double y) {
+            writer.printf("0\nVERTEX\n");
+            writer.printf("8\n%s\n", layer);
+            writer.printf("10\n%9.7f\n", x);
+            writer.printf("20\n%9.7f\n", y);
+        }
+    };
 
     /**
      * Handles creating DXF file from cycloid/catenary user specified.
@@ -71,22 +83,61 @@ class DXFWriter {
     /**
      * Writes 2D polyline's coordinates to DXF file.
      *
-     * @param points points with X/Y coords representing cycloid/catenary
+     * @param points view of the points with X/Y coords representing cycloid/catenary
      */
-    public void write2DPolyLine (final Points points) {
+    public void write2DPolyLine (final PointBuffer.View points) {
         writer.printf("0\nPOLYLINE\n");
         writer.printf("8\n0\n");
         writer.printf("66\n1\n");
         writer.printf("10\n0.000000\n");
         writer.printf("20\n0.000000\n");
-        for (Point point : points) {
-            writer.printf("0\nVERTEX\n");
-            writer.printf("8\n0\n");
-            writer.printf("10\n%9.7f\n", point.X);
-            writer.printf("20\n%9.7f\n", point.Y);
-        }
+        points.forEach(vertex);
         writer.printf("0\nSEQEND\n");
         writer.printf("8\n0\n");
         writer.flush();
     }
+
+    /**
+     * Streams 2D polyline's coordinates to DXF file chunk by chunk.
+     *
+     * Memory use stays the same whatever the number of samples.
+     * @param samples stream of X/Y coords representing cycloid/catenary
+     * @throws Exception if a sample cannot be computed
+     */
+    public void write2DPolyLine (final SampleStream samples) throws Exception {
+        write2DPolyLine(samples, "0");
+    }
+
+    /**
+     * Streams 2D polyline's coordinates to DXF file on the given layer.
+     *
+     * Offset curves go on their own layers so CAM can tell them from the template.
+     * @param samples stream of X/Y coords
+     * @param layer name of the layer, "0" for the default one
+     * @throws Exception if a sample cannot be computed
+     */
+    public void write2DPolyLine (final SampleStream samples, String layer) throws Exception {
+        this.layer = layer;
+        writer.printf("0\nPOLYLINE\n");
+        writer.printf("8\n%s\n", layer);
+        writer.printf("66\n1\n");
+        writer.printf("10\n0.000000\n");
+        writer.printf("20\n0.000000\n");
+        double[] xs = new double[CHUNK];
+        double[] ys = new double[CHUNK];
+        int n;
+        try {
+            while ((n = samples.read(xs, ys)) >= 0) {
+                for (int i=0; i<n; i++) {
+                    vertex.accept(xs[i], ys[i]);
+                }
+                writer.flush();
+            }
+        } finally {
+            this.layer = "0";
+        }
+        writer.printf("0\nSEQEND\n");
+        writer.printf("8\n%s\n", layer);
+        writer.flush();
+    }
 }
@@ -0,0 +1,8 @@
+/**
+ * Receives the X/Y coordinates of one point at a time during a PointBuffer pass.
+ *
+ * Takes primitive doubles so that a pass never boxes or allocates per point.
+ */
+interface DoubleBiConsumer {
+    void accept(double x, double y);
+}
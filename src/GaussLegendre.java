@@ -0,0 +1,38 @@
+/**
+ * 8-point Gauss-Legendre quadrature, exact for polynomials up to degree 15.
+ *
+ * Shared by CurveMetrics and ArcLengthIndex, which integrate smooth pieces of
+ * a curve on panels short enough for one rule each.
+ */
+final class GaussLegendre {
+    /**
+     * A function of the curve parameter to integrate.
+     */
+    interface Integrand {
+        double at(double t);
+    }
+
+    // 8-point Gauss-Legendre rule on [-1, 1], nodes symmetric about 0
+    private static final double[] NODES = {
+        0.1834346424956498, 0.5255324099163290, 0.7966664774136267, 0.9602898564975363
+    };
+    private static final double[] WEIGHTS = {
+        0.3626837833783620, 0.3137066458778873, 0.2223810344533745, 0.1012285362903763
+    };
+
+    private GaussLegendre() {
+    }
+
+    /**
+     * Returns the integral of f from a to b.
+     */
+    static double integrate(Integrand f, double a, double b) {
+        double mid = (a+b)/2;
+        double half = (b-a)/2;
+        double sum = 0.0;
+        for (int i=0; i<NODES.length; i++) {
+            sum += WEIGHTS[i]*(f.at(mid-half*NODES[i])+f.at(mid+half*NODES[i]));
+        }
+        return sum*half;
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * SampleStream producing samples 0..res one index at a time.
+ *
+ * Subclasses compute the index'th sample into a reused Point, so streaming does
+ * not allocate per sample.
+ */
+abstract class IndexedSampleStream implements SampleStream {
+    // mirroring buffers half of the samples; above this many, evaluate every sample
+    static final int MAX_MIRRORED_SAMPLES = 1 << 22;
+    // samples computed ahead of the reader at once in parallel, enough to keep every thread busy
+    static final int PARALLEL_BLOCK = 1 << 18;
+
+    private final int res;
+    private int next = 0;
+    private double[] upperX; // samples lo..res when mirroring
+    private double[] upperY;
+    private double centerX;
+    private boolean parallel = false;
+    private double[] blockX; // samples blockFrom..blockTo-1 when computing ahead in parallel
+    private double[] blockY;
+    private int blockFrom = 0;
+    private int blockTo = 0;
+
+    /**
+     * @param res number of intervals; the stream yields res+1 samples
+     */
+    protected IndexedSampleStream(int res) {
+        this.res = res;
+    }
+
+    /**
+     * Computes the index'th sample.
+     *
+     * @param i sample index, from 0 to res
+     * @param point receives the X/Y coordinates
+     * @throws Exception if the sample cannot be computed
+     */
+    protected abstract void sample(int i, Point point) throws Exception;
+
+    /**
+     * Computes samples from..to-1 into xs/ys starting at index offset.
+     *
+     * Calls sample(int, Point) for each one; subclasses which evaluate a run
+     * faster than one sample at a time override this.
+     *
+     * @throws Exception if a sample cannot be computed
+     */
+    protected void sample(int from, int to, double[] xs, double[] ys, int offset) throws Exception {
+        Point point = new Point(); // one per run, runs may be computed concurrently
+        for (int i=from; i<to; i++) {
+            sample(i, point);
+            xs[offset+i-from] = point.X;
+            ys[offset+i-from] = point.Y;
+        }
+    }
+
+    /**
+     * Computes samples from..to-1 into xs/ys starting at index offset, split across threads if parallel.
+     */
+    private void compute(final int from, int to, final double[] xs, final double[] ys, final int offset)
+        throws Exception {
+        if (!parallel) {
+            sample(from, to, xs, ys, offset);
+            return;
+        }
+        ParallelSampler.run(from, to, new ParallelSampler.Chunk() {
+            public void run(int a, int b) throws Exception {
+                sample(a, b, xs, ys, offset+a-from);
+            }
+            });
+    }
+
+    /**
+     * Computes the samples ahead of the reader on the threads of ParallelSampler.
+     *
+     * Requires sample(int, Point) to be safe to call from several threads at
+     * once and to depend on the index alone, so that the samples are the same
+     * as when read serially.
+     *
+     * @return this stream
+     */
+    public IndexedSampleStream parallel() {
+        if (next == 0 && ParallelSampler.getThreads() > 1) {
+            this.parallel = true;
+        }
+        return this;
+    }
+
+    /**
+     * Evaluates only the upper half of the samples and mirrors it into the lower half.
+     *
+     * Requires sample(res-i) to be the mirror image of sample(i) across x = centerX,
+     * which holds for both the trochoid and the catenary sampled symmetrically about
+     * t=0. The upper half is kept in memory, so streams longer than
+     * MAX_MIRRORED_SAMPLES keep evaluating every sample to stay in fixed memory.
+     *
+     * @param centerX X of the axis of symmetry
+     * @return this stream
+     */
+    public IndexedSampleStream mirrored(double centerX) {
+        if (next == 0 && res+1 <= MAX_MIRRORED_SAMPLES) {
+            this.upperX = new double[res/2+1];
+            this.upperY = new double[res/2+1];
+            this.centerX = centerX;
+        }
+        return this;
+    }
+
+    public int read(double[] xs, double[] ys) throws Exception {
+        if (next > res) {
+            return -1;
+        }
+        int n = Math.min(xs.length, res+1-next);
+        int lo = res-res/2;
+        if (upperX == null) {
+            if (!parallel) {
+                sample(next, next+n, xs, ys, 0);
+                next += n;
+                return n;
+            }
+            for (int k=0; k<n; k++) {
+                int i = next+k;
+                if (i >= blockTo) {
+                    if (blockX == null) {
+                        blockX = new double[Math.min(PARALLEL_BLOCK, res+1)];
+                        blockY = new double[blockX.length];
+                    }
+                    blockFrom = i;
+                    blockTo = Math.min(res+1, i+blockX.length);
+                    compute(blockFrom, blockTo, blockX, blockY, 0);
+                }
+                xs[k] = blockX[i-blockFrom];
+                ys[k] = blockY[i-blockFrom];
+            }
+            next += n;
+            return n;
+        }
+        if (next == 0) {
+            compute(lo, res+1, upperX, upperY, 0);
+        }
+        for (int k=0; k<n; k++) {
+            int i = next+k;
+            if (i < lo) {
+                xs[k] = 2*centerX-upperX[res-i-lo];
+                ys[k] = upperY[res-i-lo];
+            } else {
+                xs[k] = upperX[i-lo];
+                ys[k] = upperY[i-lo];
+            }
+        }
+        next += n;
+        return n;
+    }
+
+    /**
+     * Samples a curve at uniform parameter steps from t0 to t1.
+     *
+     * Yields exactly the values PointBuffer.fill() would store.
+     */
+    static class Uniform extends IndexedSampleStream {
+        private final Parametric curve;
+        private final double t0;
+        private final double t1;
+        private final int res;
+
+        Uniform(Parametric curve, double t0, double t1, int res) {
+            super(res);
+            this.curve = curve;
+            this.t0 = t0;
+            this.t1 = t1;
+            this.res = res;
+        }
+
+        protected void sample(int i, Point point) {
+            double t = (t1-t0)*i/res+t0;
+            point.X = curve.x(t);
+            point.Y = curve.y(t);
+        }
+
+        protected void sample(int from, int to, double[] xs, double[] ys, int offset) throws Exception {
+            if (curve instanceof UniformKernel) {
+                ((UniformKernel)curve).sample(t0, t1, res, from, to, xs, ys, offset);
+            } else {
+                super.sample(from, to, xs, ys, offset);
+            }
+        }
+    }
+}
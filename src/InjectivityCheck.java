@@ -0,0 +1,100 @@
+/**
+ * Decides whether X is one-to-one along a stretch of a trochoid, without sampling it.
+ *
+ * X(theta) = R*theta+r*sin(theta), so dX/dtheta = R+r*cos(theta). X can only
+ * turn back where that slope is negative, and its minimum over a range is
+ * found from the endpoints and the odd multiples of pi inside, in constant time.
+ */
+class InjectivityCheck {
+    enum Status {
+        INJECTIVE,      // X strictly increasing
+        CUSPED,         // X increasing with zero slope at cusps, r == R
+        NOT_INJECTIVE,  // X turns back, r > R within the range
+        DEGENERATE      // R not positive, X does not advance
+    }
+
+    private final Status status;
+    private final double minSlope;
+    private final double worstAngle;
+    private final String message;
+
+    private InjectivityCheck(Status status, double minSlope, double worstAngle, String message) {
+        this.status = status;
+        this.minSlope = minSlope;
+        this.worstAngle = worstAngle;
+        this.message = message;
+    }
+
+    /**
+     * Checks a trochoid over the rolling angles [theta0, theta1].
+     *
+     * @param R radius of the rolling circle
+     * @param r distance of the tracing point from its center
+     * @param theta0 first rolling angle
+     * @param theta1 last rolling angle
+     */
+    static InjectivityCheck check(double R, double r, double theta0, double theta1) {
+        if (!(R > 0)) {
+            return new InjectivityCheck(Status.DEGENERATE, R, theta0,
+                "The cycloid width must be positive.");
+        }
+        // the slope is smallest where r*cos(theta) is: at an endpoint, or at an
+        // odd (r > 0) or even (r < 0) multiple of pi inside the range
+        double base = (r >= 0 ? Math.PI : 0.0);
+        double k = Math.ceil((theta0-base)/(2*Math.PI));
+        double inner = base+2*Math.PI*k;
+        double worst = theta0;
+        double slope = R+r*Math.cos(theta0);
+        if (R+r*Math.cos(theta1) < slope) {
+            worst = theta1;
+            slope = R+r*Math.cos(theta1);
+        }
+        if (inner <= theta1) {
+            worst = inner;
+            slope = R-Math.abs(r);
+        }
+
+        if (slope > 0) {
+            return new InjectivityCheck(Status.INJECTIVE, slope, worst, "The cycloid is one-to-one.");
+        } else if (slope == 0) {
+            return new InjectivityCheck(Status.CUSPED, slope, worst,
+                "The cycloid is one-to-one with cusps.");
+        }
+        return new InjectivityCheck(Status.NOT_INJECTIVE, slope, worst,
+            "The cycloid is not one-to-one(injective) function: "
+            + "its height is more than its width divided by pi.");
+    }
+
+    /**
+     * Returns true if an equal-X sampling of the range is well defined.
+     */
+    public boolean isInjective() {
+        return status == Status.INJECTIVE || status == Status.CUSPED;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns the smallest dX/dtheta over the range.
+     */
+    public double getMinSlope() {
+        return minSlope;
+    }
+
+    /**
+     * Returns the rolling angle where dX/dtheta is smallest.
+     */
+    public double getWorstAngle() {
+        return worstAngle;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public String toString() {
+        return status + ": " + message;
+    }
+}
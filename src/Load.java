@@ -0,0 +1,3 @@
+public enum Load {
+    CHAIN, SPAN, LINEAR
+}
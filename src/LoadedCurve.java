@@ -0,0 +1,455 @@
+/**
+ * A hanging chain or cable under a non-uniform load, for arches and bridges.
+ *
+ * With horizontal tension H, a load w per unit of arc length gives
+ * y'' = c*rho(x)*sqrt(1+y'^2) and a load q per unit of span gives
+ * y'' = c*rho(x), where c = w/H or q/H and rho is the relative density.
+ * Load.CHAIN is the uniform chain, a*cosh(t/a)-a with c = 1/a; Load.SPAN
+ * is a uniform deck hung from the cable, a parabola; Load.LINEAR is a chain
+ * whose density grows linearly across the span by the taper.
+ *
+ * The shape is integrated by Dormand-Prince 5(4) outwards from the lowest
+ * point, where y = y' = 0. Shooting on c, and on X of the lowest point when
+ * the load is lopsided, brings both supports to the depth. The accepted steps
+ * are kept as a table read by cubic Hermite interpolation, so evaluating the
+ * curve costs a table lookup and allocates nothing.
+ */
+class LoadedCurve extends UniformKernel {
+    static final double TOLERANCE = 1e-11; // relative error per step
+    static final int MAX_STEPS = 1 << 16; // per integration
+    static final int MAX_SHOTS = 60;
+    private static final int MIN_STEPS = 64; // steps across the span at least, for the interpolation
+
+    private final Load load;
+    private final double taper;
+    private final double half; // half the span, the supports are at X = +-half
+    private final double depth;
+    private final double sx;
+    private final double sy;
+    private double c; // load over horizontal tension
+    private double low; // X of the lowest point
+
+    // accepted steps, ascending in X: y, y' and y'' at each
+    private double[] ts = new double[256];
+    private double[] ys = new double[256];
+    private double[] ps = new double[256];
+    private double[] qs = new double[256];
+    private int size;
+    // table interval of the last lookup, runs of samples move on from it. Threads sharing the
+    // curve race on it harmlessly: an int is written whole, every value written is a valid
+    // interval, and locate() checks it holds t before trusting it.
+    private int hint;
+
+    // state of the integrator, so that a step allocates nothing
+    private double y;
+    private double p;
+
+    /**
+     * Solves the shape that spans length and sags by depth, and tabulates it over [-extent, extent].
+     *
+     * @param load how the load is spread
+     * @param taper density at the right support over the middle, minus 1; only Load.LINEAR uses it
+     * @param length span between the supports
+     * @param depth sag of the lowest point below the supports
+     * @param extent half the range of t to tabulate, at least length/2
+     * @param sx scale width
+     * @param sy scale height
+     * @throws IllegalArgumentException if length or depth is not positive
+     * @throws IllegalStateException if the shooting does not converge
+     */
+    LoadedCurve(Load load, double taper, double length, double depth, double extent, double sx, double sy) {
+        if (!(length > 0) || !(depth > 0)) {
+            throw new IllegalArgumentException("LoadedCurve: length and depth must be positive");
+        }
+        this.load = load;
+        this.taper = (load == Load.LINEAR ? taper : 0.0);
+        this.half = length/2;
+        this.depth = depth;
+        this.sx = sx;
+        this.sy = sy;
+        shoot();
+        tabulate(Math.max(extent, half));
+    }
+
+    public Load getLoad() {
+        return load;
+    }
+
+    /**
+     * Returns the load over the horizontal tension; 1/a for the uniform chain.
+     */
+    public double getLoadRatio() {
+        return c;
+    }
+
+    /**
+     * Returns t of the lowest point, 0 unless the load is lopsided.
+     */
+    public double getLowPoint() {
+        return low;
+    }
+
+    /**
+     * Returns true if the curve is mirror symmetric about t=0.
+     */
+    public boolean isSymmetric() {
+        return taper == 0.0;
+    }
+
+    /**
+     * Returns the largest |d2y/dt2| over [t0, t1], before scaling.
+     */
+    double getMaxSecondDerivative(double t0, double t1) {
+        double max = Math.max(Math.abs(second(t0)), Math.abs(second(t1)));
+        for (int i=0; i<size; i++) {
+            if (ts[i] > t0 && ts[i] < t1) {
+                max = Math.max(max, Math.abs(qs[i]));
+            }
+        }
+        return max;
+    }
+
+    public double x(double t) {
+        return t*sx;
+    }
+
+    public double y(double t) {
+        return height(t)*sy;
+    }
+
+    double dx(double t) {
+        return sx;
+    }
+
+    double dy(double t) {
+        return slope(t)*sy;
+    }
+
+    double[] turningPoints(double t0, double t1) {
+        // the lowest point
+        if (Math.min(t0, t1) < low && Math.max(t0, t1) > low) {
+            return new double[] {low};
+        }
+        return new double[0];
+    }
+
+    void eval(double[] ts, int from, int to, double[] xs, double[] ys) {
+        for (int i=from; i<to; i++) {
+            xs[i] = ts[i]*sx;
+            ys[i] = height(ts[i])*sy;
+        }
+    }
+
+    void sample(double t0, double t1, int res, int from, int to,
+                double[] xs, double[] ys, int offset) {
+        for (int i=from; i<to; i++) {
+            double t = (t1-t0)*i/res+t0;
+            xs[offset+i-from] = t*sx;
+            ys[offset+i-from] = height(t)*sy;
+        }
+    }
+
+    /**
+     * Returns y'' for the slope p at X, the right hand side of the equation of the curve.
+     */
+    private double load(double x, double p) {
+        double rho = Math.max(0.0, 1+taper*x/half); // a chain cannot weigh less than nothing
+        return (load == Load.SPAN ? c*rho : c*rho*Math.sqrt(1+p*p));
+    }
+
+    /**
+     * Finds c, and the lowest point if the load is lopsided, so that both supports are depth above it.
+     */
+    private void shoot() {
+        // the rise grows like c*half^2/2 for a light load and exponentially in c
+        // for a deep chain, so c is bracketed and refined on logarithms of both;
+        // starting no steeper than 1/half keeps a deep chain from overflowing
+        low = 0.0;
+        c = Math.min(2*depth/(half*half), 1/half);
+        double f = Math.log(integrate(0.0, half, false)/depth);
+        double lo;
+        double hi;
+        double fLo;
+        double fHi;
+        if (f < 0) {
+            do {
+                lo = c;
+                fLo = f;
+                c *= 2;
+                f = Math.log(integrate(0.0, half, false)/depth);
+            } while (f < 0);
+            hi = c;
+            fHi = f;
+        } else {
+            do {
+                hi = c;
+                fHi = f;
+                c /= 2;
+                f = Math.log(integrate(0.0, half, false)/depth);
+            } while (f >= 0);
+            lo = c;
+            fLo = f;
+        }
+        // Illinois variant of regula falsi in log(c)
+        lo = Math.log(lo);
+        hi = Math.log(hi);
+        int side = 0;
+        for (int k=0; k<MAX_SHOTS && Math.abs(f) > TOLERANCE && hi-lo > TOLERANCE; k++) {
+            double u = (lo*fHi-hi*fLo)/(fHi-fLo);
+            c = Math.exp(u);
+            f = Math.log(integrate(0.0, half, false)/depth);
+            if (f < 0) {
+                lo = u;
+                fLo = f;
+                if (side < 0) {
+                    fHi /= 2;
+                }
+                side = -1;
+            } else {
+                hi = u;
+                fHi = f;
+                if (side > 0) {
+                    fLo /= 2;
+                }
+                side = 1;
+            }
+        }
+        if (!(Math.abs(f) <= 1e-6)) {
+            throw new IllegalStateException("LoadedCurve: no shape spans " + 2*half + " with depth " + depth);
+        }
+        if (isSymmetric()) {
+            return;
+        }
+        // Newton on c and the lowest point, from the symmetric solution
+        double right = integrate(low, half, false)-depth;
+        double left = integrate(low, -1*half, false)-depth;
+        for (int k=0; k<MAX_SHOTS && Math.max(Math.abs(right), Math.abs(left)) > TOLERANCE*depth; k++) {
+            double c0 = c;
+            double low0 = low;
+            double dc = 1e-7*c0;
+            double dl = 1e-7*half;
+            c = c0+dc;
+            double rc = (integrate(low0, half, false)-depth-right)/dc;
+            double lc = (integrate(low0, -1*half, false)-depth-left)/dc;
+            c = c0;
+            low = low0+dl;
+            double rl = (integrate(low, half, false)-depth-right)/dl;
+            double ll = (integrate(low, -1*half, false)-depth-left)/dl;
+            double det = rc*ll-rl*lc;
+            if (det == 0) {
+                break;
+            }
+            double stepC = (right*ll-rl*left)/det;
+            double stepL = (rc*left-right*lc)/det;
+            // halves the step until the supports come closer
+            double norm = Math.max(Math.abs(right), Math.abs(left));
+            double scale = 1.0;
+            for (int j=0; j<30; j++, scale/=2) {
+                c = c0-scale*stepC;
+                low = Math.max(-1*half, Math.min(half, low0-scale*stepL));
+                if (c > 0) {
+                    right = integrate(low, half, false)-depth;
+                    left = integrate(low, -1*half, false)-depth;
+                    if (Math.max(Math.abs(right), Math.abs(left)) < norm) {
+                        break;
+                    }
+                }
+            }
+        }
+        if (!(Math.max(Math.abs(right), Math.abs(left)) <= 1e-6*depth)) {
+            throw new IllegalStateException("LoadedCurve: no shape spans " + 2*half + " with depth " + depth);
+        }
+    }
+
+    /**
+     * Tabulates the curve over [-extent, extent] from the lowest point outwards.
+     */
+    private void tabulate(double extent) {
+        size = 0;
+        // the left half comes out descending, so it is reversed in place
+        integrate(low, -1*extent, true);
+        for (int i=0, j=size-1; i<j; i++, j--) {
+            swap(i, j);
+        }
+        size--; // the lowest point is recorded again by the right half
+        integrate(low, extent, true);
+        hint = 0;
+    }
+
+    private void swap(int i, int j) {
+        double t = ts[i];
+        ts[i] = ts[j];
+        ts[j] = t;
+        t = ys[i];
+        ys[i] = ys[j];
+        ys[j] = t;
+        t = ps[i];
+        ps[i] = ps[j];
+        ps[j] = t;
+        t = qs[i];
+        qs[i] = qs[j];
+        qs[j] = t;
+    }
+
+    private void record(double x, double y, double p, double q) {
+        if (size == ts.length) {
+            ts = java.util.Arrays.copyOf(ts, 2*size);
+            ys = java.util.Arrays.copyOf(ys, 2*size);
+            ps = java.util.Arrays.copyOf(ps, 2*size);
+            qs = java.util.Arrays.copyOf(qs, 2*size);
+        }
+        ts[size] = x;
+        ys[size] = y;
+        ps[size] = p;
+        qs[size] = q;
+        size++;
+    }
+
+    /**
+     * Integrates from the lowest point at x0, where y = y' = 0, to x1 and returns y there.
+     *
+     * Steps are Dormand-Prince 5(4) with the error of the embedded 4th order
+     * solution kept within TOLERANCE; y does not appear on the right hand side,
+     * so y' is all the stages need.
+     *
+     * @param record true to append every accepted step to the table
+     */
+    private double integrate(double x0, double x1, boolean record) {
+        y = 0.0;
+        p = 0.0;
+        double x = x0;
+        double span = x1-x0;
+        if (span == 0) {
+            if (record) {
+                record(x, y, p, load(x, p));
+            }
+            return y;
+        }
+        double direction = Math.signum(span);
+        double maxStep = 2*half/MIN_STEPS;
+        double h = direction*Math.min(Math.abs(span), maxStep)/4;
+        double k1 = load(x, p);
+        if (record) {
+            record(x, y, p, k1);
+        }
+        for (int steps=0; direction*(x1-x) > 0; steps++) {
+            if (steps == MAX_STEPS) {
+                throw new IllegalStateException("LoadedCurve: too many steps, the load is too steep");
+            }
+            if (direction*(x+h-x1) > 0) {
+                h = x1-x;
+            }
+            double k2 = load(x+h/5, p+h*(k1/5));
+            double k3 = load(x+h*3/10, p+h*(k1*3/40+k2*9/40));
+            double k4 = load(x+h*4/5, p+h*(k1*44/45-k2*56/15+k3*32/9));
+            double k5 = load(x+h*8/9, p+h*(k1*19372/6561-k2*25360/2187+k3*64448/6561-k4*212/729));
+            double k6 = load(x+h, p+h*(k1*9017/3168-k2*355/33+k3*46732/5247+k4*49/176-k5*5103/18656));
+            double p5 = p+h*(k1*35/384+k3*500/1113+k4*125/192-k5*2187/6784+k6*11/84);
+            double k7 = load(x+h, p5);
+            // y' = p, so the stages of y are the slopes at the stages of p
+            double p3 = p+h*(k1*3/40+k2*9/40);
+            double p4 = p+h*(k1*44/45-k2*56/15+k3*32/9);
+            double p6 = p+h*(k1*9017/3168-k2*355/33+k3*46732/5247+k4*49/176-k5*5103/18656);
+            double y5 = y+h*(p*35/384+p3*500/1113+p4*125/192
+                             -(p+h*(k1*19372/6561-k2*25360/2187+k3*64448/6561-k4*212/729))*2187/6784
+                             +p6*11/84);
+            double errP = h*(k1*71/57600-k3*71/16695+k4*71/1920-k5*17253/339200+k6*22/525-k7/40);
+            double errY = h*(p*71/57600-p3*71/16695+p4*71/1920
+                             -(p+h*(k1*19372/6561-k2*25360/2187+k3*64448/6561-k4*212/729))*17253/339200
+                             +p6*22/525-p5/40);
+            double err = Math.max(Math.abs(errP)/(TOLERANCE*(1+Math.abs(p5))),
+                                  Math.abs(errY)/(TOLERANCE*(half+Math.abs(y5))));
+            if (err <= 1 || Math.abs(h) <= 1e-12*half) {
+                x += h;
+                y = y5;
+                p = p5;
+                k1 = k7; // first same as last
+                if (record) {
+                    record(x, y, p, k7);
+                }
+            }
+            double factor = (err > 0 ? 0.9*Math.pow(err, -0.2) : 5.0);
+            h *= Math.max(0.2, Math.min(5.0, factor));
+            if (Math.abs(h) > maxStep) {
+                h = direction*maxStep;
+            }
+        }
+        return y;
+    }
+
+    /**
+     * Returns the table interval holding t, starting the search at the last one.
+     *
+     * The hint is only a guess; whatever another thread left in it, the
+     * interval returned is checked or searched for.
+     */
+    private int locate(double t) {
+        int i = hint;
+        if (i >= size-1) {
+            i = size-2;
+        }
+        if (t < ts[i] || t > ts[i+1]) {
+            // neighbouring intervals first, runs of samples move on by one
+            if (i+2 < size && t >= ts[i+1] && t <= ts[i+2]) {
+                i++;
+            } else {
+                int lo = 0;
+                int hi = size-1;
+                while (hi-lo > 1) {
+                    int mid = (lo+hi) >>> 1;
+                    if (ts[mid] <= t) {
+                        lo = mid;
+                    } else {
+                        hi = mid;
+                    }
+                }
+                i = lo;
+            }
+        }
+        hint = i;
+        return i;
+    }
+
+    /**
+     * Returns y at t by cubic Hermite interpolation of the table, straight on past its ends.
+     */
+    private double height(double t) {
+        if (t <= ts[0]) {
+            return ys[0]+ps[0]*(t-ts[0]);
+        }
+        if (t >= ts[size-1]) {
+            return ys[size-1]+ps[size-1]*(t-ts[size-1]);
+        }
+        int i = locate(t);
+        double h = ts[i+1]-ts[i];
+        double s = (t-ts[i])/h;
+        double s2 = s*s;
+        double s3 = s2*s;
+        return (2*s3-3*s2+1)*ys[i]+(s3-2*s2+s)*h*ps[i]+(3*s2-2*s3)*ys[i+1]+(s3-s2)*h*ps[i+1];
+    }
+
+    /**
+     * Returns y' at t by cubic Hermite interpolation of the table.
+     */
+    private double slope(double t) {
+        if (t <= ts[0]) {
+            return ps[0];
+        }
+        if (t >= ts[size-1]) {
+            return ps[size-1];
+        }
+        int i = locate(t);
+        double h = ts[i+1]-ts[i];
+        double s = (t-ts[i])/h;
+        double s2 = s*s;
+        double s3 = s2*s;
+        return (2*s3-3*s2+1)*ps[i]+(s3-2*s2+s)*h*qs[i]+(3*s2-2*s3)*ps[i+1]+(s3-s2)*h*qs[i+1];
+    }
+
+    /**
+     * Returns y'' at t, exactly from the slope.
+     */
+    private double second(double t) {
+        return load(t, slope(t));
+    }
+}
@@ -0,0 +1,301 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Stores X/Y coordinates off the Java heap in a memory-mapped file.
+ *
+ * Meant for exports with far more points than fit in a PointBuffer. Points are
+ * interleaved as X,Y doubles after a small header that records the parameter key
+ * the points were sampled for, so a later export with identical parameters can
+ * reuse the file instead of sampling the curve again.
+ *
+ * The directory is a cache and may be emptied at any time. Files are named
+ * by a SHA-1 digest of the key, and opening a new store deletes the least
+ * recently used others once they hold more than MAX_DIR_BYTES.
+ */
+class MappedPointStore implements DoubleBiConsumer {
+    private static final long MAGIC = 0x4359435054533031L; // "CYCPTS01"
+    private static final int HEADER_BYTES = 512;
+    private static final int SEGMENT_SHIFT = 30; // a mapping cannot exceed 2GB, use 1GB each
+    private static final long SEGMENT_BYTES = 1L << SEGMENT_SHIFT;
+    private static final long SEGMENT_MASK = SEGMENT_BYTES-1;
+    private static final int POINT_BYTES = 16;
+    static final long MAX_DIR_BYTES = 1L << 32; // 4GB of other stores kept beside a new one
+    private static final String PREFIX = "points-";
+    private static final String SUFFIX = ".bin";
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final long capacity;
+    private long count;
+    private boolean complete;
+
+    private MappedPointStore(File file, RandomAccessFile raf, long capacity,
+                             long count, boolean complete) throws IOException {
+        this.file = file;
+        this.raf = raf;
+        this.channel = raf.getChannel();
+        this.capacity = capacity;
+        this.count = count;
+        this.complete = complete;
+        long bytes = capacity*POINT_BYTES;
+        segments = new MappedByteBuffer[(int)((bytes+SEGMENT_BYTES-1) >>> SEGMENT_SHIFT)];
+        FileChannel.MapMode mode = complete ? FileChannel.MapMode.READ_ONLY
+                                            : FileChannel.MapMode.READ_WRITE;
+        for (int i=0; i<segments.length; i++) {
+            long start = (long)i << SEGMENT_SHIFT;
+            segments[i] = channel.map(mode, HEADER_BYTES+start, Math.min(SEGMENT_BYTES, bytes-start));
+        }
+    }
+
+    /**
+     * Opens the store for key in dir, creating it if needed.
+     *
+     * If a complete store sampled for the same key already exists it is opened
+     * read-only and isComplete() returns true; otherwise an empty store with room
+     * for capacity points is created and must be filled with add() and finish().
+     *
+     * @param dir directory holding the store files
+     * @param key identifies the curve, its parameters and resolution
+     * @param capacity number of points the store must hold if it has to be sampled
+     * @throws IOException if the file cannot be created or mapped
+     */
+    public static MappedPointStore open(File dir, String key, long capacity) throws IOException {
+        byte[] keyBytes = key.getBytes("UTF-8");
+        if (keyBytes.length > HEADER_BYTES-20) {
+            throw new IllegalArgumentException("store key too long: " + key);
+        }
+        File file = new File(dir, PREFIX + digest(keyBytes) + SUFFIX);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            long stored = readCount(raf, keyBytes);
+            if (stored >= 0) {
+                file.setLastModified(System.currentTimeMillis()); // recently used
+                return new MappedPointStore(file, raf, stored, stored, true);
+            }
+            // missing, incomplete or sampled for other parameters: start over
+            evict(dir, file, MAX_DIR_BYTES);
+            raf.setLength(0);
+            raf.writeLong(MAGIC);
+            raf.writeLong(-1);
+            raf.writeInt(keyBytes.length);
+            raf.write(keyBytes);
+            raf.setLength(HEADER_BYTES+capacity*POINT_BYTES);
+            return new MappedPointStore(file, raf, capacity, 0, false);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the SHA-1 digest of key in hex, so that keys only share a file if they are equal.
+     */
+    private static String digest(byte[] key) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(key)) {
+                hex.append(String.format("%02x", b & 0xff));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is missing", e); // every JRE has it
+        }
+    }
+
+    /**
+     * Deletes the least recently used store files in dir, except keep, until the rest fit in maxBytes.
+     *
+     * A store still mapped by a running export may refuse to be deleted on
+     * some systems; it is then left for a later call.
+     */
+    static void evict(File dir, File keep, long maxBytes) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File a, File b) {
+                // newest first
+                long d = b.lastModified()-a.lastModified();
+                return (d < 0 ? -1 : (d > 0 ? 1 : 0));
+            }
+        });
+        long bytes = 0;
+        for (File f : files) {
+            String name = f.getName();
+            if (f.equals(keep) || !name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) {
+                continue;
+            }
+            bytes += f.length();
+            if (bytes > maxBytes) {
+                f.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns samples for key from the store in dir, sampling them first if needed.
+     *
+     * When no complete store exists for key, samples is drained into a new one;
+     * either way the returned stream reads the stored points.
+     *
+     * @param dir directory holding the store files
+     * @param key identifies the curve, its parameters and resolution
+     * @param capacity number of points samples yields
+     * @param samples computes the points if they are not stored yet
+     * @throws Exception if the store cannot be opened or a sample cannot be computed
+     */
+    public static SampleStream cached(File dir, String key, long capacity,
+                                      SampleStream samples) throws Exception {
+        MappedPointStore store = open(dir, key, capacity);
+        try {
+            if (!store.isComplete()) {
+                double[] xs = new double[4096];
+                double[] ys = new double[4096];
+                int n;
+                while ((n = samples.read(xs, ys)) >= 0) {
+                    for (int i=0; i<n; i++) {
+                        store.accept(xs[i], ys[i]);
+                    }
+                }
+                store.finish();
+            }
+            return store.stream();
+        } finally {
+            store.close(); // mappings stay readable after the file is closed
+        }
+    }
+
+    /**
+     * Returns the number of points of a complete store for keyBytes, or -1.
+     */
+    private static long readCount(RandomAccessFile raf, byte[] keyBytes) throws IOException {
+        if (raf.length() < HEADER_BYTES) {
+            return -1;
+        }
+        raf.seek(0);
+        if (raf.readLong() != MAGIC) {
+            return -1;
+        }
+        long stored = raf.readLong();
+        if (raf.readInt() != keyBytes.length) {
+            return -1;
+        }
+        byte[] storedKey = new byte[keyBytes.length];
+        raf.readFully(storedKey);
+        if (!Arrays.equals(storedKey, keyBytes)) {
+            return -1;
+        }
+        if (stored < 0 || raf.length() < HEADER_BYTES+stored*POINT_BYTES) {
+            return -1;
+        }
+        return stored;
+    }
+
+    /**
+     * Returns true if the store holds every point of a finished sampling run.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Appends a point; used as the sink while sampling.
+     *
+     * @throws IllegalStateException if the store is complete or full
+     */
+    public void accept(double x, double y) {
+        if (complete || count == capacity) {
+            throw new IllegalStateException("point store is "
+                + (complete ? "complete" : "full") + ": " + file);
+        }
+        long offset = count*POINT_BYTES;
+        MappedByteBuffer segment = segments[(int)(offset >>> SEGMENT_SHIFT)];
+        int pos = (int)(offset & SEGMENT_MASK);
+        segment.putDouble(pos, x);
+        segment.putDouble(pos+8, y);
+        count++;
+    }
+
+    /**
+     * Flushes the points to disk and marks the store complete for later runs.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public void finish() throws IOException {
+        for (int i=0; i<segments.length; i++) {
+            segments[i].force();
+        }
+        raf.seek(8);
+        raf.writeLong(count);
+        complete = true;
+    }
+
+    /**
+     * Returns the number of points in the store.
+     */
+    public long length() {
+        return count;
+    }
+
+    public double getX(long index) {
+        return read(index, 0);
+    }
+
+    public double getY(long index) {
+        return read(index, 8);
+    }
+
+    private double read(long index, int field) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+        }
+        long offset = index*POINT_BYTES;
+        return segments[(int)(offset >>> SEGMENT_SHIFT)].getDouble((int)(offset & SEGMENT_MASK)+field);
+    }
+
+    /**
+     * Returns a new stream reading the stored points from the beginning.
+     *
+     * Any number of streams may read a complete store at once.
+     */
+    public SampleStream stream() {
+        return new SampleStream() {
+            private long next = 0;
+
+            public int read(double[] xs, double[] ys) {
+                if (next >= count) {
+                    return -1;
+                }
+                int n = (int)Math.min(xs.length, count-next);
+                for (int i=0; i<n; i++) {
+                    xs[i] = getX(next+i);
+                    ys[i] = getY(next+i);
+                }
+                next += n;
+                return n;
+            }
+        };
+    }
+
+    /**
+     * Closes the underlying file; the mapped points stay valid until collected.
+     */
+    public void close() {
+        try {
+            raf.close();
+        } catch (IOException e) {
+            // nothing else to release
+        }
+    }
+}
@@ -0,0 +1,313 @@
+import java.util.Arrays;
+
+/**
+ * Curve at a constant distance from a UniformKernel, for tool-radius compensation.
+ *
+ * Points are moved along the analytic unit normal, so an offset costs one
+ * evaluation of the curve and its derivatives per sample. A positive distance
+ * offsets to the left of the direction of travel, i.e. towards +y for the
+ * cycloid and catenary, which both travel towards +x.
+ *
+ * trace() also trims what a router bit cannot follow. Where the distance
+ * exceeds the radius of curvature the offset runs backwards and forms a
+ * swallowtail; at a cusp of the curve the normal flips and the offset jumps.
+ * Both are bridged by a round arc on the convex side, and both are cut back
+ * to the crossing of the branches around them on the concave side. Crossings
+ * elsewhere, like the loops of a prolate trochoid, are part of the design and kept.
+ */
+class OffsetCurve implements Parametric {
+    static final double CUSP_SPEED = 1e-9; // relative to the speed of the curve, a cusp below it
+    private static final int MIN_WINDOW = 8; // segments searched around a trimmed run at first
+    private static final byte FORWARD = 0; // offset runs the way the curve does
+    private static final byte SWALLOWTAIL = 1; // offset runs backwards, distance above the radius of curvature
+    private static final byte ARC = 2; // bridge around a cusp of the curve
+
+    private final UniformKernel base;
+    private final double distance;
+
+    /**
+     * @param base curve to offset
+     * @param distance offset to the left of the direction of travel; negative for the right
+     */
+    OffsetCurve(UniformKernel base, double distance) {
+        this.base = base;
+        this.distance = distance;
+    }
+
+    public double getDistance() {
+        return distance;
+    }
+
+    public double x(double t) {
+        double dx = base.dx(t);
+        double dy = base.dy(t);
+        double v = Math.sqrt(dx*dx+dy*dy);
+        return (v > 0 ? base.x(t)-distance*dy/v : base.x(t));
+    }
+
+    public double y(double t) {
+        double dx = base.dx(t);
+        double dy = base.dy(t);
+        double v = Math.sqrt(dx*dx+dy*dy);
+        return (v > 0 ? base.y(t)+distance*dx/v : base.y(t));
+    }
+
+    /**
+     * Returns 1-distance*k(t), the rate of the offset relative to the curve; negative where it runs backwards.
+     *
+     * The signed curvature k is taken from the analytic first derivatives and
+     * central differences of them.
+     */
+    double stretch(double t) {
+        double h = 1e-5*Math.max(1.0, Math.abs(t));
+        double dx = base.dx(t);
+        double dy = base.dy(t);
+        double ddx = (base.dx(t+h)-base.dx(t-h))/(2*h);
+        double ddy = (base.dy(t+h)-base.dy(t-h))/(2*h);
+        double v2 = dx*dx+dy*dy;
+        return 1-distance*(dx*ddy-dy*ddx)/(v2*Math.sqrt(v2));
+    }
+
+    /**
+     * Replaces the contents of out with the trimmed offset of [t0, t1], no chord straying more than tolerance.
+     *
+     * The offset is sampled in pieces between the turning points of the curve,
+     * so a piece never spans more than half an arch of a trochoid and every
+     * cusp lies at the end of a piece.
+     *
+     * @param t0 first parameter value, below t1
+     * @param t1 last parameter value
+     * @param tolerance largest chord deviation, in curve units
+     * @param out receives the offset polyline
+     */
+    public void trace(double t0, double t1, double tolerance, PointBuffer out) {
+        double[] turning = base.turningPoints(t0, t1);
+        // the fastest turning point sets the scale, as the ends and the middle may all be cusps
+        double scale = Math.max(Math.max(base.speed(t0), base.speed(t1)), base.speed((t0+t1)/2));
+        for (int k=0; k<turning.length; k++) {
+            scale = Math.max(scale, base.speed(turning[k]));
+        }
+        double cusp = CUSP_SPEED*scale;
+
+        Path path = new Path(new PointBuffer());
+        PointBuffer piece = new PointBuffer();
+        AdaptiveSampler sampler = new AdaptiveSampler(this, tolerance);
+        double end = 1e-9*(t1-t0);
+        double a = t0;
+        boolean cuspA = !(base.speed(a) > cusp);
+        for (int k=0; k<=turning.length; k++) {
+            double b = (k < turning.length ? turning[k] : t1);
+            if (!(b > a) || (k < turning.length && !(b-t0 > end && t1-b > end))) {
+                continue; // an end rounded off a turning point, not a piece of its own
+            }
+            boolean cuspB = !(base.speed(b) > cusp);
+            // the normal at a cusp is the limit from inside the piece
+            double nudge = 1e-9*(b-a);
+            sampler.sample((cuspA ? a+nudge : a), (cuspB ? b-nudge : b), piece);
+            int first = 0;
+            if (path.length() > 0) {
+                if (cuspA) {
+                    addArc(path, a, piece.getX(0), piece.getY(0), tolerance, k);
+                } else {
+                    first = 1; // a smooth turning point, where the last piece ended
+                }
+            }
+            for (int i=first; i<piece.length(); i++) {
+                path.add(piece.getX(i), piece.getY(i),
+                         (stretch(sampler.getParameter(i)) < 0 ? SWALLOWTAIL : FORWARD), k);
+            }
+            a = b;
+            cuspA = cuspB;
+        }
+        // a swallowtail next to a cusp is cut against the arc, then the arc against the far branch
+        Path cut = new Path(new PointBuffer());
+        trim(path, SWALLOWTAIL, cut);
+        trim(cut, ARC, new Path(out));
+    }
+
+    /**
+     * Bridges the jump of the offset at the cusp c by an arc around the cusp.
+     *
+     * The arc bulges the way the curve was heading, away from both branches;
+     * on the concave side it is trimmed away with the branches around it.
+     */
+    private void addArc(Path path, double c, double xb, double yb, double tolerance, int piece) {
+        double px = base.x(c);
+        double py = base.y(c);
+        double xa = path.points.getX(path.length()-1);
+        double ya = path.points.getY(path.length()-1);
+        double h = 1e-6*Math.max(1.0, Math.abs(c));
+        double ahead = Math.atan2(base.y(c)-base.y(c-h), base.x(c)-base.x(c-h));
+        double from = Math.atan2(ya-py, xa-px);
+        double to = Math.atan2(yb-py, xb-px);
+        // sweep from 'from' to 'to' through 'ahead'
+        double sweep = normalize(to-from);
+        if (normalize(ahead-from) > sweep) {
+            sweep -= 2*Math.PI;
+        }
+        double radius = Math.abs(distance);
+        double step = (radius > tolerance ? 2*Math.acos(1-tolerance/radius) : Math.PI/2);
+        int n = (int)Math.ceil(Math.abs(sweep)/step);
+        for (int i=1; i<n; i++) {
+            double angle = from+sweep*i/n;
+            path.add(px+radius*Math.cos(angle), py+radius*Math.sin(angle), ARC, piece);
+        }
+    }
+
+    /**
+     * Copies path to out, cutting every run of the given kind back to the crossing of the branches around it.
+     *
+     * Swallowtails and cusp arcs are local, so the crossing is searched in a
+     * window around the run that only grows when nothing is found, and never
+     * by more than two pieces either way, one arch of a trochoid. A run without
+     * a crossing there, like the arc on the convex side, is kept unless it
+     * hangs off an end of the curve.
+     */
+    private static void trim(Path path, byte kind, Path out) {
+        out.clear();
+        int n = path.length();
+        int i = 0;
+        double[] cross = new double[2];
+        while (i < n) {
+            if (path.kinds[i] != kind) {
+                out.add(path.points.getX(i), path.points.getY(i), path.kinds[i], path.pieces[i]);
+                i++;
+                continue;
+            }
+            int first = i;
+            while (i < n && path.kinds[i] == kind) {
+                i++;
+            }
+            int last = i-1;
+            // left branch: segments of out from 'lowest' on, the last one bridging to the run;
+            // right branch: segments of path from the end of the run up to 'limit'
+            int lowest = out.length();
+            if (lowest > 0) {
+                int piece = out.pieces[lowest-1]-1;
+                while (lowest > 0 && out.pieces[lowest-1] >= piece) {
+                    lowest--;
+                }
+            }
+            int limit = last;
+            if (last+1 < n) {
+                int piece = path.pieces[last+1]+1;
+                while (limit < n-1 && path.pieces[limit+1] <= piece) {
+                    limit++;
+                }
+            }
+            int foundP = -1;
+            int foundQ = -1;
+            for (int w=MIN_WINDOW; foundP < 0; w*=2) {
+                int best = Integer.MAX_VALUE;
+                for (int p=out.length()-1; p>=Math.max(lowest, out.length()-w); p--) {
+                    double xa = out.points.getX(p);
+                    double ya = out.points.getY(p);
+                    double xb = (p+1 < out.length() ? out.points.getX(p+1) : path.points.getX(first));
+                    double yb = (p+1 < out.length() ? out.points.getY(p+1) : path.points.getY(first));
+                    for (int q=last; q<Math.min(limit, last+w); q++) {
+                        int cost = (out.length()-p)+(q-last);
+                        if (cost < best && intersect(xa, ya, xb, yb, path.points.getX(q), path.points.getY(q),
+                                                     path.points.getX(q+1), path.points.getY(q+1), cross)) {
+                            best = cost;
+                            foundP = p;
+                            foundQ = q;
+                        }
+                    }
+                }
+                if (foundP >= 0) {
+                    intersect(out.points.getX(foundP), out.points.getY(foundP),
+                              (foundP+1 < out.length() ? out.points.getX(foundP+1) : path.points.getX(first)),
+                              (foundP+1 < out.length() ? out.points.getY(foundP+1) : path.points.getY(first)),
+                              path.points.getX(foundQ), path.points.getY(foundQ),
+                              path.points.getX(foundQ+1), path.points.getY(foundQ+1), cross);
+                    break;
+                }
+                if (out.length()-w <= lowest && last+w >= limit) {
+                    break;
+                }
+            }
+            if (foundP < 0) {
+                if ((first == 0 || last == n-1) && last-first+1 < n) {
+                    // half a swallowtail at an end of the curve, nothing to cross; the tool stops short of it
+                    continue;
+                }
+                for (int k=first; k<=last; k++) {
+                    out.add(path.points.getX(k), path.points.getY(k), path.kinds[k], path.pieces[k]);
+                }
+                continue;
+            }
+            // drop the loop between the two crossing segments
+            int piece = out.pieces[foundP];
+            out.truncate(foundP+1);
+            out.add(cross[0], cross[1], FORWARD, piece);
+            i = foundQ+1;
+        }
+    }
+
+    /**
+     * Returns true if segments a-b and c-d cross, storing the crossing in cross.
+     */
+    private static boolean intersect(double xa, double ya, double xb, double yb,
+                                     double xc, double yc, double xd, double yd, double[] cross) {
+        double rx = xb-xa;
+        double ry = yb-ya;
+        double sx = xd-xc;
+        double sy = yd-yc;
+        double denom = rx*sy-ry*sx;
+        if (denom == 0) {
+            return false;
+        }
+        double u = ((xc-xa)*sy-(yc-ya)*sx)/denom;
+        double v = ((xc-xa)*ry-(yc-ya)*rx)/denom;
+        if (u < 0 || u > 1 || v < 0 || v > 1) {
+            return false;
+        }
+        cross[0] = xa+u*rx;
+        cross[1] = ya+u*ry;
+        return true;
+    }
+
+    /**
+     * Returns the angle wrapped into [0, 2*pi).
+     */
+    private static double normalize(double angle) {
+        angle %= 2*Math.PI;
+        return (angle < 0 ? angle+2*Math.PI : angle);
+    }
+
+    /**
+     * Offset polyline whose points also record their kind and the piece of the curve they belong to.
+     */
+    private static class Path {
+        final PointBuffer points;
+        byte[] kinds = new byte[1024];
+        int[] pieces = new int[1024];
+
+        Path(PointBuffer points) {
+            this.points = points;
+        }
+
+        int length() {
+            return points.length();
+        }
+
+        void add(double x, double y, byte kind, int piece) {
+            int index = points.length();
+            if (index >= kinds.length) {
+                kinds = Arrays.copyOf(kinds, 2*kinds.length);
+                pieces = Arrays.copyOf(pieces, 2*pieces.length);
+            }
+            kinds[index] = kind;
+            pieces[index] = piece;
+            points.add(x, y);
+        }
+
+        void truncate(int length) {
+            points.truncate(length);
+        }
+
+        void clear() {
+            points.clear();
+        }
+    }
+}
@@ -3,8 +3,6 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.lang.Math;
-import java.util.ArrayList;
-import java.util.List;
 
 import javax.swing.JOptionPane;
 
@@ -15,6 +13,13 @@ class PDFWriter {
     private static final int MAX_XREFS = 2000;
     private final RandomAccessFile raf;
 
+    private final PointBuffer points = new PointBuffer(); // reused for every curve plotted
+    private final PointBuffer upper = new PointBuffer(); // upper half of a symmetric curve
+    private double upperTolerance = Double.NaN;
+    private final PolylineCache polylines = PolylineCache.getShared();
+    private double upperT0;
+    private double upperT1;
+
     /**
      * Internal struct used for constructing PDF
      */
@@ -327,29 +332,58 @@ class PDFWriter {
     }
 
     /**
-     * Draws a polyline from points array.
+     * Draws a polyline from a view of a points buffer.
      *
      * @param points points
      * @throws IOException if an I/O error occurs
      */
-    public void drawPolyLine(Points points) throws IOException {
-        // Using for-each loop for subList of points array to avoid i>0 && i%20==0
-        raf.writeBytes(String.format("%6.3f %6.3f m\n", points.getX(0), points.getY(0)));
-        int i = 1;
-        List<Point> subPoints = points.subList(1, points.length());
-        for (Point point : subPoints) {
-            if (i%20 == 0) {
-                raf.writeBytes(String.format("%6.3f %6.3f l\n", point.X, point.Y));
+    public void drawPolyLine(PointBuffer.View points) throws IOException {
+        PointBuffer.Cursor cursor = points.cursor();
+        if (!cursor.next()) {
+            return;
+        }
+        raf.writeBytes(String.format("%6.3f %6.3f m\n", cursor.x(), cursor.y()));
+        while (cursor.next()) {
+            double x = cursor.x();
+            double y = cursor.y();
+            raf.writeBytes(String.format("%6.3f %6.3f l\n", x, y));
+            if (cursor.position()%20 == 0) {
                 raf.writeBytes("S\n");
-                raf.writeBytes(String.format("%6.3f %6.3f m\n", point.X, point.Y));
-            } else {
-                raf.writeBytes(String.format("%6.3f %6.3f l\n", point.X, point.Y));
+                raf.writeBytes(String.format("%6.3f %6.3f m\n", x, y));
             }
-            i++;
         }
         raf.writeBytes("S\n");
     }
 
+    /**
+     * Draws a polyline read chunk by chunk from a sample stream.
+     *
+     * @param samples points, e.g. from a MappedPointStore
+     * @throws Exception if an I/O error occurs or a sample cannot be computed
+     */
+    public void drawPolyLine(SampleStream samples) throws Exception {
+        double[] xs = new double[4096];
+        double[] ys = new double[4096];
+        int count = 0;
+        int n;
+        while ((n = samples.read(xs, ys)) >= 0) {
+            for (int i=0; i<n; i++, count++) {
+                if (count == 0) {
+                    raf.writeBytes(String.format("%6.3f %6.3f m\n", xs[i], ys[i]));
+                    continue;
+                }
+                raf.writeBytes(String.format("%6.3f %6.3f l\n", xs[i], ys[i]));
+                if (count%20 == 0) {
+                    raf.writeBytes("S\n");
+                    raf.writeBytes(String.format("%6.3f %6.3f m\n", xs[i], ys[i]));
+                }
+            }
+        }
+        if (count > 0) {
+            raf.writeBytes("S\n");
+        }
+    }
+
     /**
      * Creates a PDF graph for cycloid
      *
@@ -357,9 +391,204 @@ class PDFWriter {
      * @param cycloid declared as final to only give access to its public methods
      */
     public void makeCycloidGraph(int flag, final Cycloid cycloid) throws IOException {
-        double minX = cycloid.PlayfairX(-1*Math.PI);
-        double maxX = cycloid.PlayfairX(Math.PI);
+        // the loops of a prolate trochoid reach past the ends
+        double minX = cycloid.getMetrics().getMinX();
+        double maxX = cycloid.getMetrics().getMaxX();
+
+        writeCycloidHeader(cycloid);
+
+        if (flag == -1) {
+            raf.writeBytes(String.format("1 0 0 1 %6.3f 20 cm\n", -1*minX/2));
+            maxX = 0.0;
+        } else if (flag == 1) {
+            raf.writeBytes(String.format("1 0 0 1 %6.3f 20 cm\n", minX/2));
+            minX = 0.0;
+        }
+
+        plotCycloidGrid(minX, maxX, cycloid);
+
+        // plots the curve
+        raf.writeBytes("q\n");
+        raf.writeBytes(".1 w\n");
+        plotCycloidCurve(flag, cycloid);
+        raf.writeBytes("Q\n");
+    }
+
+    /**
+     * Same as sampleCurve() but looks the samples up in the shared polyline cache first.
+     *
+     * @param key curve type and the parameters the curve depends on
+     * @return the samples in drawing order, shared; must not be modified
+     */
+    private PointBuffer cachedCurve(String key, Parametric curve, double t0, double t1, double tolerance,
+                                    int flag, boolean symmetric) {
+        key = key + " " + t0 + " " + t1 + " " + tolerance + " " + flag;
+        PointBuffer line = polylines.get(key);
+        if (line == null) {
+            line = new PointBuffer();
+            line.copyFrom(sampleCurve(curve, t0, t1, tolerance, flag, symmetric));
+            polylines.put(key, line);
+        }
+        return line;
+    }
+
+    /**
+     * Samples the part of a curve selected by flag, no chord straying more than tolerance from it.
+     *
+     * With symmetric sampling the curve must be mirror symmetric about the middle of
+     * [t0, t1]; only the upper half is evaluated and the lower half is its mirror
+     * image. The upper half is kept, so the second page of a split graph costs no
+     * evaluation at all.
+     *
+     * @param curve curve to sample
+     * @param t0 first parameter value of the whole curve
+     * @param t1 last parameter value of the whole curve
+     * @param tolerance largest chord deviation, in curve units
+     * @param flag -1 negative half, 0 whole curve, 1 positive half
+     * @param symmetric true to mirror the lower half from the upper half
+     * @return the samples in drawing order
+     */
+    private PointBuffer sampleCurve(Parametric curve, double t0, double t1, double tolerance,
+                                    int flag, boolean symmetric) {
+        AdaptiveSampler sampler = new AdaptiveSampler(curve, tolerance, true);
+        double tc = (t0+t1)/2;
+        if (flag == 0) {
+            if (symmetric) {
+                sampler.sampleSymmetric(t0, t1, points);
+            } else {
+                sampler.sample(t0, t1, points);
+            }
+            return points;
+        }
+        if (!symmetric) {
+            if (flag < 0) {
+                sampler.sample(t0, tc, points);
+            } else {
+                sampler.sample(tc, t1, points);
+            }
+            return points;
+        }
+        if (upperTolerance != tolerance || upperT0 != tc || upperT1 != t1) {
+            sampler.sample(tc, t1, upper);
+            upperTolerance = tolerance;
+            upperT0 = tc;
+            upperT1 = t1;
+        }
+        if (flag > 0) {
+            return upper;
+        }
+        points.clear();
+        double cx = upper.getX(0);
+        for (int i=upper.length()-1; i>=0; i--) {
+            points.add(2*cx-upper.getX(i), upper.getY(i));
+        }
+        return points;
+    }
 
+    /**
+     * Strokes sampled points as a polyline, restarting the path every 10 segments.
+     *
+     * @param curve points to stroke
+     * @throws IOException if an I/O error occurs
+     */
+    private void strokeCurve(PointBuffer curve) throws IOException {
+        raf.writeBytes(String.format("%6.3f %6.3f m\n", curve.getX(0), curve.getY(0)));
+        for (int i=1; i<curve.length(); ++i) {
+            double x = curve.getX(i);
+            double y = curve.getY(i);
+            raf.writeBytes(String.format("%6.3f %6.3f l\n", x, y));
+            if (i%10 == 0) {
+                raf.writeBytes("S\n");
+                raf.writeBytes(String.format("%6.3f %6.3f m\n", x, y));
+            }
+        }
+        raf.writeBytes("S\n");
+    }
+
+    /**
+     * Plots the inner and outer offset curves dashed, as a router bit centre would follow them.
+     *
+     * @param inner offset on the inside of the curve
+     * @param outer offset on the outside of the curve
+     * @param t0 first parameter value of the whole curve
+     * @param t1 last parameter value of the whole curve
+     * @param tolerance largest chord deviation, in curve units
+     * @param flag -1 negative half, 0 whole curve, 1 positive half
+     */
+    private void plotOffsets(OffsetCurve inner, OffsetCurve outer, double t0, double t1,
+                             double tolerance, int flag) throws IOException {
+        double tc = (t0+t1)/2;
+        double from = (flag > 0 ? tc : t0);
+        double to = (flag < 0 ? tc : t1);
+        PointBuffer offset = new PointBuffer();
+        raf.writeBytes("q\n");
+        raf.writeBytes("[2 2] 0 d\n");
+        inner.trace(from, to, tolerance, offset);
+        strokeCurve(offset);
+        outer.trace(from, to, tolerance, offset);
+        strokeCurve(offset);
+        raf.writeBytes("Q\n");
+    }
+
+    /**
+     * Plots the cycloid curve on PDF file
+     *
+     * @param flag -1 negative half, 0 whole curve, 1 positive half
+     */
+    private void plotCycloidCurve(int flag, final Cycloid cycloid) throws IOException {
+        Parametric curve = cycloid.getKernel();
+        strokeCurve(cachedCurve("cycloid-page " + cycloid.getCurveKey(), curve,
+                                -1*Math.PI, Math.PI, cycloid.getChordTolerance(), flag,
+                                cycloid.isSymmetricSampling()));
+        if (cycloid.getOffsetDistance() > 0) {
+            plotOffsets(cycloid.getOffsetCurve(false), cycloid.getOffsetCurve(true),
+                        -1*Math.PI, Math.PI, cycloid.getChordTolerance(), flag);
+        }
+
+        plotCycloidMarks(flag, cycloid);
+        raf.writeBytes("S\n");
+    }
+
+    /**
+     * Creates a PDF page showing one arch of a multi-arch cycloid template
+     *
+     * Every page is drawn in the coordinates of the first arch, so the
+     * marks and grid are the same on all pages.
+     *
+     * @param arch arch shown on this page, from 0
+     * @param cycloid declared as final to only give access to its public methods
+     * @throws Exception if the samples cannot be read or an I/O error occurs
+     */
+    public void makeCycloidArchGraph(int arch, final Cycloid cycloid) throws Exception {
+        double minX = cycloid.getMetrics(1.0).getMinX();
+        double maxX = cycloid.getMetrics(1.0).getMaxX();
+        int res = cycloid.getArchResolution();
+        SampleStream samples = cycloid.getArchSamples(arch, res);
+
+        writeCycloidHeader(cycloid);
+        plotCycloidGrid(minX, maxX, cycloid);
+
+        // plots the curve
+        raf.writeBytes("q\n");
+        raf.writeBytes(".1 w\n");
+        drawPolyLine(samples);
+        plotCycloidMarks(0, cycloid);
+        raf.writeBytes("S\n");
+        if (cycloid.getOffsetDistance() > 0) {
+            PointBuffer offset = new PointBuffer();
+            raf.writeBytes("[2 2] 0 d\n");
+            cycloid.traceArchOffset(arch, false, offset);
+            strokeCurve(offset);
+            cycloid.traceArchOffset(arch, true, offset);
+            strokeCurve(offset);
+        }
+        raf.writeBytes("Q\n");
+    }
+
+    /**
+     * Prints the title and caption of a cycloid graph and sets up its coordinates
+     */
+    private void writeCycloidHeader(final Cycloid cycloid) throws IOException {
         // prints title
         raf.writeBytes("BT\n");
         raf.writeBytes("/F1 12 Tf\n");
@@ -383,20 +612,32 @@ class PDFWriter {
                         cycloid.getScaleWidth(), cycloid.getScaleHeight()));
             }
             raf.writeBytes("ET\n");
+            if (cycloid.isMetricsEnabled()) {
+                writeMetricsCaption(cycloid.getMetrics(), cycloid.getPaper(), cycloid.getMetric());
+            }
         }
 
         raf.writeBytes(String.format("%5.4f 0 0 %5.4f 0 0 cm\n", Cycloid.PT_TO_MM, Cycloid.PT_TO_MM));
         raf.writeBytes(String.format("%g 0 0 %g %g 50 cm\n", cycloid.getScaleWidth(), cycloid.getScaleHeight(),
                         cycloid.getPaper().getHeight()/2.0/Cycloid.PT_TO_MM));
+    }
 
-        if (flag == -1) {
-            raf.writeBytes(String.format("1 0 0 1 %6.3f 20 cm\n", -1*minX/2));
-            maxX = 0.0;
-        } else if (flag == 1) {
-            raf.writeBytes(String.format("1 0 0 1 %6.3f 20 cm\n", minX/2));
-            minX = 0.0;
-        }
+    /**
+     * Prints the length, area and extent of a template under its caption
+     */
+    private void writeMetricsCaption(CurveMetrics metrics, PaperSize paper, Metric metric) throws IOException {
+        raf.writeBytes("BT\n");
+        raf.writeBytes("/F1 12 Tf\n");
+        raf.writeBytes(String.format("%g 46 Td (%s) Tj\n",
+                        (float)(paper.getHeight()/2-5*40/2),
+                        metrics.toCaption(metric)));
+        raf.writeBytes("ET\n");
+    }
 
+    /**
+     * Plots the base line and the horizontal grid lines of a cycloid graph
+     */
+    private void plotCycloidGrid(double minX, double maxX, final Cycloid cycloid) throws IOException {
         // plots the grid
         raf.writeBytes("q\n");
         raf.writeBytes(".35 w\n");
@@ -408,57 +649,16 @@ class PDFWriter {
         raf.writeBytes(String.format("%6.3f %6.3f m %6.3f %6.3f l S\n", minX, cycloid.getCycloidHeight()
                         , maxX, cycloid.getCycloidHeight()));
         raf.writeBytes("Q\n");
-
-        // plots the curve
-        raf.writeBytes("q\n");
-        raf.writeBytes(".1 w\n");
-        plotCycloidCurve((int)(maxX-minX), flag, cycloid);
-        raf.writeBytes("Q\n");
     }
 
     /**
-     * Plots the cycloid curve on PDF file
+     * Adds the vertical marks at the middle and the cusps to the current path
      *
-     * @param res resolution
      * @param flag -1 negative half, 0 whole curve, 1 positive half
      */
-    private void plotCycloidCurve(double res, int flag, final Cycloid cycloid) throws IOException {
-        if (res < 20) {
-            res = 50;
-        }
-
-        double x = 0.0;
+    private void plotCycloidMarks(int flag, final Cycloid cycloid) throws IOException {
+        double x = cycloid.PlayfairX(0.0);
         double y = 0.0;
-        if (flag <= 0) {
-            x = cycloid.PlayfairX(-1*Math.PI);
-            y = cycloid.PlayfairY(-1*Math.PI);
-        } else {
-            x = cycloid.PlayfairX(0.0);
-            y = cycloid.PlayfairY(0.0);
-        }
-
-        raf.writeBytes(String.format("%6.3f %6.3f m\n", x, y));
-        for (int i=1; i<=res; ++i) {
-            if (flag == -1) {
-                x = cycloid.PlayfairX(Math.PI*i/res-Math.PI);
-                y = cycloid.PlayfairY(Math.PI*i/res-Math.PI);
-            } else if (flag == 0) {
-                x = cycloid.PlayfairX(2*Math.PI*i/res-Math.PI);
-                y = cycloid.PlayfairY(2*Math.PI*i/res-Math.PI);
-            } else {
-                x = cycloid.PlayfairX(Math.PI*i/res);
-                y = cycloid.PlayfairY(Math.PI*i/res);
-            }
-            raf.writeBytes(String.format("%6.3f %6.3f l\n", x, y));
-            if (i%10 == 0) {
-                raf.writeBytes("S\n");
-                raf.writeBytes(String.format("%6.3f %6.3f m\n", x, y));
-            }
-        }
-        raf.writeBytes("S\n");
-
-        x = cycloid.PlayfairX(0.0);
-        y = 0.0;
         raf.writeBytes(String.format("%6.3f %6.3f m\n", x, y));
         y = 2*cycloid.getr()+10;
         raf.writeBytes(String.format("%6.3f %6.3f l\n", x, y));
@@ -477,7 +677,6 @@ class PDFWriter {
             y = 2*cycloid.getr()+10;
             raf.writeBytes(String.format("%6.3f %6.3f l\n", x, y));
         }
-        raf.writeBytes("S\n");
     }
 
     /**
@@ -493,7 +692,8 @@ class PDFWriter {
         double percent = (catenary.getPercent() > 100.0 ? catenary.getPercent()/100.0 : 1.0);
         double minX = catenary.CatenaryX(a, -1*length*percent);
         double maxX = catenary.CatenaryX(a, length*percent);
-        double maxY = catenary.CatenaryY(a, length*percent);
+        // a lopsided load leaves one end higher
+        double maxY = Math.max(catenary.CatenaryY(a, -1*length*percent), catenary.CatenaryY(a, length*percent));
 
         // prints title
         raf.writeBytes("BT\n");
@@ -518,6 +718,9 @@ class PDFWriter {
                                 catenary.getScaleWidth(), catenary.getScaleHeight()));
             }
             raf.writeBytes("ET\n");
+            if (catenary.isMetricsEnabled()) {
+                writeMetricsCaption(catenary.getMetrics(), catenary.getPaper(), catenary.getMetric());
+            }
         }
 
         raf.writeBytes(String.format("%5.4f 0 0 %5.4f 0 0 cm\n", Catenary.PT_TO_MM, Catenary.PT_TO_MM));
@@ -549,7 +752,7 @@ class PDFWriter {
         // plots the curve
         raf.writeBytes("q\n");
         raf.writeBytes(".1 w\n");
-        plotCatenaryCurve(a, length, (int)(maxX-minX), flag, catenary);
+        plotCatenaryCurve(a, length, flag, catenary);
         raf.writeBytes("Q\n");
     }
 
@@ -558,45 +761,20 @@ class PDFWriter {
      *
      * @param a 'a' in catenary
      * @param length half of cLength
-     * @param res resolution
      * @param flag -1 negative half, 0 whole curve, 1 positive half
      * @param catenary catenary instance
      * @throws IOException if an I/O error occurs
      */
-    private void plotCatenaryCurve(double a, double length, int res, int flag, final Catenary catenary) throws IOException {
-        if (res < 20) {
-            res = 50;
+    private void plotCatenaryCurve(double a, double length, int flag, final Catenary catenary) throws IOException {
+        Parametric curve = catenary.getKernel(a);
+        strokeCurve(cachedCurve("catenary-page " + catenary.getCurveKey() + " " + a, curve,
+                                -1*length, length, catenary.getChordTolerance(), flag,
+                                catenary.isSymmetricSampling()));
+        if (catenary.getOffsetDistance() > 0) {
+            plotOffsets(catenary.getOffsetCurve(a, false), catenary.getOffsetCurve(a, true),
+                        -1*length, length, catenary.getChordTolerance(), flag);
         }
 
-        double x = 0.0;
-        double y = 0.0;
-        if (flag <= 0) {
-            x = catenary.CatenaryX(a, -1*length);
-            y = catenary.CatenaryY(a, -1*length);
-        } else {
-            x = catenary.CatenaryX(a, 0.0);
-            y = catenary.CatenaryY(a, 0.0);
-        }
-        raf.writeBytes(String.format("%6.3f %6.3f m\n", x, y));
-        for (int i=1; i<=res; ++i) {
-            if (flag == -1) {
-                x = catenary.CatenaryX(a, -1*length+length*i/res);
-                y = catenary.CatenaryY(a, -1*length+length*i/res);
-            } else if (flag == 0) {
-                x = catenary.CatenaryX(a, -1*length+2*length*i/res);
-                y = catenary.CatenaryY(a, -1*length+2*length*i/res);
-            } else {
-                x = catenary.CatenaryX(a, length*i/res);
-                y = catenary.CatenaryY(a, length*i/res);
-            }
-            raf.writeBytes(String.format("%6.3f %6.3f l\n", x, y));
-            if (i%10 == 0) {
-                raf.writeBytes("S\n");
-                raf.writeBytes(String.format("%6.3f %6.3f m\n", x, y));
-            }
-        }
-        raf.writeBytes("S\n");
-
         raf.writeBytes("S\n");
     }
 }
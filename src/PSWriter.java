@@ -15,6 +15,14 @@ class PSWriter {
     private int top = 0;
     private int eps = 0; // not sure if this is still used
     private boolean split = false;
+    private int pages; // value of the %%Pages comment
+
+    private final PointBuffer points = new PointBuffer(); // reused for every curve plotted
+    private final PointBuffer upper = new PointBuffer(); // upper half of a symmetric curve
+    private double upperTolerance = Double.NaN;
+    private final PolylineCache polylines = PolylineCache.getShared();
+    private double upperT0;
+    private double upperT1;
 
     /**
      * Handles creating PS file from cycloid/catenary user specified.
@@ -25,6 +33,16 @@ class PSWriter {
     public PSWriter(File file, boolean split) throws IOException {
         writer = new PrintWriter(new BufferedWriter(new FileWriter(file)));
         this.split = split;
+        this.pages = (split ? 2 : 1);
+    }
+
+    /**
+     * Sets the page count announced by writeHeader(), for files with one graph per page.
+     *
+     * @param pages number of pages
+     */
+    public void setPageCount(int pages) {
+        this.pages = pages;
     }
 
     /**
@@ -35,7 +53,7 @@ class PSWriter {
         writer.printf("%%%%Title: Trachoids\n");
         writer.printf("%%%%DocumentFonts: Times-Roman\n");
         writer.printf("%%%%Orientation: Landscape\n");
-        writer.printf("%%%%Pages: %d\n", (split?2:1));
+        writer.printf("%%%%Pages: %d\n", pages);
         writer.printf("%%%%EndComments\n");
         writer.flush();
     }
@@ -103,14 +121,45 @@ class PSWriter {
         }
     }
 
+    /**
+     * Draws a polyline read chunk by chunk from a sample stream.
+     *
+     * @param samples points, e.g. from a MappedPointStore
+     * @throws Exception if a sample cannot be computed
+     */
+    public void drawPolyLine(SampleStream samples) throws Exception {
+        double[] xs = new double[4096];
+        double[] ys = new double[4096];
+        int count = 0;
+        int n;
+        while ((n = samples.read(xs, ys)) >= 0) {
+            for (int i=0; i<n; i++, count++) {
+                if (count == 0) {
+                    writer.printf("%6.3f %6.3f moveto\n", xs[i], ys[i]);
+                    continue;
+                }
+                writer.printf("%6.3f %6.3f lineto\n", xs[i], ys[i]);
+                if (count%10 == 0) {
+                    writer.printf("stroke\n");
+                    writer.printf("%6.3f %6.3f moveto\n", xs[i], ys[i]);
+                }
+            }
+        }
+        if (count > 0) {
+            writer.printf("stroke\n");
+        }
+        writer.flush();
+    }
+
     /**
      * Creates PS graph for cycloid
      *
      * @param cycloid declared as final to only give access to its public methods
      */
     public void makeCycloidGraph(final Cycloid cycloid) {
-        double minX = cycloid.PlayfairX(-1*Math.PI);
-        double maxX = cycloid.PlayfairX(Math.PI);
+        // the loops of a prolate trochoid reach past the ends
+        double minX = cycloid.getMetrics().getMinX();
+        double maxX = cycloid.getMetrics().getMaxX();
 
         if (split) {
             if (top == 1) {
@@ -137,34 +186,7 @@ class PSWriter {
             writer.printf("0 125 translate\n");
         }
 
-        if (cycloid.isCaptionEnabled()) {
-            writer.printf("/Times-Roman findfont 5 scalefont setfont\n");
-            if (cycloid.getCycloidWidth() > 0 && cycloid.getCycloidHeight() > 0) {
-                if (cycloid.getMetric() == Metric.MM) {
-                    writer.printf("0 -8 moveto (W=%4.2f,  h=%4.2f  scale=%4.3f %4.3f) dup "
-                                    + "stringwidth pop 2 div neg 0 rmoveto show \n",
-                                    cycloid.getCycloidWidth(),
-                                    cycloid.getCycloidHeight(),
-                                    cycloid.getScaleWidth(),
-                                    cycloid.getScaleHeight());
-                } else {
-                    writer.printf("0 -8 moveto (W=%4.2f,  h=%4.2f  scale=%4.3f %4.3f) dup "
-                                    + "stringwidth pop 2 div neg 0 rmoveto show \n",
-                                    cycloid.getCycloidWidth()/25.4,
-                                    cycloid.getCycloidHeight()/25.4,
-                                    cycloid.getScaleWidth(),
-                                    cycloid.getScaleHeight());
-                }
-            } else {
-                if (cycloid.getMetric() == Metric.MM) {
-                    writer.printf("0 -8 moveto (R=%4.2f,  r=%4.2f) dup stringwidth pop 2 "
-                                    + "div neg 0 rmoveto show \n", cycloid.getR(), cycloid.getr());
-                } else {
-                    writer.printf("0 -8 moveto (R=%4.2f,  r=%4.2f) dup stringwidth pop 2 "
-                                    + "div neg 0 rmoveto show \n", cycloid.getR()/25.4, cycloid.getr()/25.4);
-                }
-            }
-        }
+        writeCycloidCaption(cycloid);
 
         writer.printf("gsave\n");
         writer.printf(".35 setlinewidth\n");
@@ -177,7 +199,7 @@ class PSWriter {
         // finally plotting the curve
         writer.printf("gsave\n");
         writer.printf(".1 setlinewidth\n");
-        plotCycloidCurve((int)(maxX-minX), 0, cycloid);
+        plotCycloidCurve(0, cycloid);
         writer.printf("grestore\n");
 
         if (top == 1) {
@@ -236,6 +258,9 @@ class PSWriter {
                                     + "rmoveto show \n", cycloid.getR()/25.4, cycloid.getr()/25.4);
                 }
             }
+            if (cycloid.isMetricsEnabled()) {
+                writeMetricsCaption(cycloid.getMetrics(), cycloid.getMetric());
+            }
         }
 
         writer.printf("gsave\n");
@@ -249,7 +274,7 @@ class PSWriter {
         // finally plotting the curve
         writer.printf("gsave\n");
         writer.printf(".1 setlinewidth\n");
-        plotCycloidCurve((int)(maxX-minX)/2, -1, cycloid);
+        plotCycloidCurve(-1, cycloid);
         writer.printf("grestore\n");
 
         writer.printf("grestore\n");
@@ -283,6 +308,9 @@ class PSWriter {
                 writer.printf("0 -8 moveto (R=%4.2f,  r=%4.2f) dup stringwidth pop 2 div neg 0 rmoveto show \n",
                                 cycloid.getR(), cycloid.getr());
             }
+            if (cycloid.isMetricsEnabled()) {
+                writeMetricsCaption(cycloid.getMetrics(), cycloid.getMetric());
+            }
         }
         writer.printf("gsave\n");
         writer.printf(".35 setlinewidth\n");
@@ -295,7 +323,7 @@ class PSWriter {
         // plotting the curve again
         writer.printf("gsave\n");
         writer.printf(".1 setlinewidth\n");
-        plotCycloidCurve((int)(maxX-minX)/2, 1, cycloid);
+        plotCycloidCurve(1, cycloid);
         writer.printf("grestore\n");
 
         writer.printf("grestore\n");
@@ -304,38 +332,86 @@ class PSWriter {
     }
 
     /**
-     * Plots the cycloid curve on PS file
+     * Same as sampleCurve() but looks the samples up in the shared polyline cache first.
      *
-     * @param res resolution
-     * @param flag -1 negative half, 0 whole curve, 1 positive half
+     * @param key curve type and the parameters the curve depends on
+     * @return the samples in drawing order, shared; must not be modified
      */
-    private void plotCycloidCurve(double res, int flag, final Cycloid cycloid) {
-        if (res < 20) {
-            res = 50;
+    private PointBuffer cachedCurve(String key, Parametric curve, double t0, double t1, double tolerance,
+                                    int flag, boolean symmetric) {
+        key = key + " " + t0 + " " + t1 + " " + tolerance + " " + flag;
+        PointBuffer line = polylines.get(key);
+        if (line == null) {
+            line = new PointBuffer();
+            line.copyFrom(sampleCurve(curve, t0, t1, tolerance, flag, symmetric));
+            polylines.put(key, line);
         }
+        return line;
+    }
 
-        double x = 0.0;
-        double y = 0.0;
-        if (flag <= 0) {
-            x = cycloid.PlayfairX(-1*Math.PI);
-            y = cycloid.PlayfairY(-1*Math.PI);
-        } else {
-            x = cycloid.PlayfairX(0.0);
-            y = cycloid.PlayfairY(0.0);
+    /**
+     * Samples the part of a curve selected by flag, no chord straying more than tolerance from it.
+     *
+     * With symmetric sampling the curve must be mirror symmetric about the middle of
+     * [t0, t1]; only the upper half is evaluated and the lower half is its mirror
+     * image. The upper half is kept, so the second page of a split graph costs no
+     * evaluation at all.
+     *
+     * @param curve curve to sample
+     * @param t0 first parameter value of the whole curve
+     * @param t1 last parameter value of the whole curve
+     * @param tolerance largest chord deviation, in curve units
+     * @param flag -1 negative half, 0 whole curve, 1 positive half
+     * @param symmetric true to mirror the lower half from the upper half
+     * @return the samples in drawing order
+     */
+    private PointBuffer sampleCurve(Parametric curve, double t0, double t1, double tolerance,
+                                    int flag, boolean symmetric) {
+        AdaptiveSampler sampler = new AdaptiveSampler(curve, tolerance, true);
+        double tc = (t0+t1)/2;
+        if (flag == 0) {
+            if (symmetric) {
+                sampler.sampleSymmetric(t0, t1, points);
+            } else {
+                sampler.sample(t0, t1, points);
+            }
+            return points;
         }
-
-        writer.printf("%6.3f %6.3f moveto\n", x, y);
-        for (int i=1; i<=res; ++i) {
-            if (flag == -1) {
-                x = cycloid.PlayfairX(Math.PI*i/res-Math.PI);
-                y = cycloid.PlayfairY(Math.PI*i/res-Math.PI);
-            } else if (flag == 0) {
-                x = cycloid.PlayfairX(2*Math.PI*i/res-Math.PI);
-                y = cycloid.PlayfairY(2*Math.PI*i/res-Math.PI);
+        if (!symmetric) {
+            if (flag < 0) {
+                sampler.sample(t0, tc, points);
             } else {
-                x = cycloid.PlayfairX(Math.PI*i/res);
-                y = cycloid.PlayfairY(Math.PI*i/res);
+                sampler.sample(tc, t1, points);
             }
+            return points;
+        }
+        if (upperTolerance != tolerance || upperT0 != tc || upperT1 != t1) {
+            sampler.sample(tc, t1, upper);
+            upperTolerance = tolerance;
+            upperT0 = tc;
+            upperT1 = t1;
+        }
+        if (flag > 0) {
+            return upper;
+        }
+        points.clear();
+        double cx = upper.getX(0);
+        for (int i=upper.length()-1; i>=0; i--) {
+            points.add(2*cx-upper.getX(i), upper.getY(i));
+        }
+        return points;
+    }
+
+    /**
+     * Strokes sampled points as a polyline, restarting the path every 10 segments.
+     *
+     * @param curve points to stroke
+     */
+    private void strokeCurve(PointBuffer curve) {
+        writer.printf("%6.3f %6.3f moveto\n", curve.getX(0), curve.getY(0));
+        for (int i=1; i<curve.length(); ++i) {
+            double x = curve.getX(i);
+            double y = curve.getY(i);
             writer.printf("%6.3f %6.3f lineto\n", x, y);
             if (i%10 == 0) {
                 writer.printf("stroke\n");
@@ -344,8 +420,160 @@ class PSWriter {
         }
         writer.printf("stroke\n");
         writer.flush();
-        x = cycloid.PlayfairX(0.0);
-        y = 0;
+    }
+
+    /**
+     * Plots the inner and outer offset curves dashed, as a router bit centre would follow them.
+     *
+     * @param inner offset on the inside of the curve
+     * @param outer offset on the outside of the curve
+     * @param t0 first parameter value of the whole curve
+     * @param t1 last parameter value of the whole curve
+     * @param tolerance largest chord deviation, in curve units
+     * @param flag -1 negative half, 0 whole curve, 1 positive half
+     */
+    private void plotOffsets(OffsetCurve inner, OffsetCurve outer, double t0, double t1,
+                             double tolerance, int flag) {
+        double tc = (t0+t1)/2;
+        double from = (flag > 0 ? tc : t0);
+        double to = (flag < 0 ? tc : t1);
+        PointBuffer offset = new PointBuffer();
+        writer.printf("gsave\n");
+        writer.printf("[2 2] 0 setdash\n");
+        inner.trace(from, to, tolerance, offset);
+        strokeCurve(offset);
+        outer.trace(from, to, tolerance, offset);
+        strokeCurve(offset);
+        writer.printf("grestore\n");
+        writer.flush();
+    }
+
+    /**
+     * Plots the cycloid curve on PS file
+     *
+     * @param flag -1 negative half, 0 whole curve, 1 positive half
+     */
+    private void plotCycloidCurve(int flag, final Cycloid cycloid) {
+        Parametric curve = cycloid.getKernel();
+        strokeCurve(cachedCurve("cycloid-page " + cycloid.getCurveKey(), curve,
+                                -1*Math.PI, Math.PI, cycloid.getChordTolerance(), flag,
+                                cycloid.isSymmetricSampling()));
+        if (cycloid.getOffsetDistance() > 0) {
+            plotOffsets(cycloid.getOffsetCurve(false), cycloid.getOffsetCurve(true),
+                        -1*Math.PI, Math.PI, cycloid.getChordTolerance(), flag);
+        }
+
+        plotCycloidMarks(flag, cycloid);
+        writer.printf("stroke\n");
+        writer.flush();
+    }
+
+    /**
+     * Creates a PS page showing one arch of a multi-arch cycloid template
+     *
+     * Every page is drawn in the coordinates of the first arch, so the
+     * marks and grid are the same on all pages.
+     *
+     * @param arch arch shown on this page, from 0
+     * @param cycloid declared as final to only give access to its public methods
+     * @throws Exception if the samples cannot be read
+     */
+    public void makeCycloidArchGraph(int arch, final Cycloid cycloid) throws Exception {
+        double minX = cycloid.getMetrics(1.0).getMinX();
+        double maxX = cycloid.getMetrics(1.0).getMaxX();
+        int res = cycloid.getArchResolution();
+
+        page += 1;
+        writePageHeader(1/* scale */,
+                        cycloid.getPaper().getWidth(),
+                        cycloid.getPaper().getHeight(),
+                        cycloid.getScaleWidth(),
+                        cycloid.getScaleHeight(),
+                        cycloid.getTitle());
+        writer.printf("%g 20 translate\n", cycloid.getPaper().getHeight()/2.0/Cycloid.PT_TO_MM);
+        writeCycloidCaption(cycloid);
+
+        writer.printf("gsave\n");
+        writer.printf(".35 setlinewidth\n");
+        writer.printf(".5 setgray\n");
+        writer.printf("%6.3f 0 moveto %6.3f 0 rlineto stroke\n", minX, maxX-minX);
+        writer.printf("%6.3f %6.3f moveto %6.3f 0 rlineto stroke\n", minX, cycloid.getCycloidHeight()/2, maxX-minX);
+        writer.printf("%6.3f %6.3f moveto %6.3f 0 rlineto stroke\n", minX, cycloid.getCycloidHeight(), maxX-minX);
+        writer.printf("grestore\n");
+
+        writer.printf("gsave\n");
+        writer.printf(".1 setlinewidth\n");
+        drawPolyLine(cycloid.getArchSamples(arch, res));
+        plotCycloidMarks(0, cycloid);
+        writer.printf("stroke\n");
+        if (cycloid.getOffsetDistance() > 0) {
+            PointBuffer offset = new PointBuffer();
+            writer.printf("[2 2] 0 setdash\n");
+            cycloid.traceArchOffset(arch, false, offset);
+            strokeCurve(offset);
+            cycloid.traceArchOffset(arch, true, offset);
+            strokeCurve(offset);
+        }
+        writer.printf("grestore\n");
+
+        writer.printf("grestore\n");
+        writer.printf("showpage\n");
+        writer.flush();
+    }
+
+    /**
+     * Prints the length, area and extent of a template under its caption
+     */
+    private void writeMetricsCaption(CurveMetrics metrics, Metric metric) {
+        writer.printf("0 -14 moveto (%s) dup stringwidth pop 2 div neg 0 rmoveto show \n",
+                        metrics.toCaption(metric));
+    }
+
+    /**
+     * Prints the caption under a cycloid graph if it is enabled
+     */
+    private void writeCycloidCaption(final Cycloid cycloid) {
+        if (cycloid.isCaptionEnabled()) {
+            writer.printf("/Times-Roman findfont 5 scalefont setfont\n");
+            if (cycloid.getCycloidWidth() > 0 && cycloid.getCycloidHeight() > 0) {
+                if (cycloid.getMetric() == Metric.MM) {
+                    writer.printf("0 -8 moveto (W=%4.2f,  h=%4.2f  scale=%4.3f %4.3f) dup "
+                                    + "stringwidth pop 2 div neg 0 rmoveto show \n",
+                                    cycloid.getCycloidWidth(),
+                                    cycloid.getCycloidHeight(),
+                                    cycloid.getScaleWidth(),
+                                    cycloid.getScaleHeight());
+                } else {
+                    writer.printf("0 -8 moveto (W=%4.2f,  h=%4.2f  scale=%4.3f %4.3f) dup "
+                                    + "stringwidth pop 2 div neg 0 rmoveto show \n",
+                                    cycloid.getCycloidWidth()/25.4,
+                                    cycloid.getCycloidHeight()/25.4,
+                                    cycloid.getScaleWidth(),
+                                    cycloid.getScaleHeight());
+                }
+            } else {
+                if (cycloid.getMetric() == Metric.MM) {
+                    writer.printf("0 -8 moveto (R=%4.2f,  r=%4.2f) dup stringwidth pop 2 "
+                                    + "div neg 0 rmoveto show \n", cycloid.getR(), cycloid.getr());
+                } else {
+                    writer.printf("0 -8 moveto (R=%4.2f,  r=%4.2f) dup stringwidth pop 2 "
+                                    + "div neg 0 rmoveto show \n", cycloid.getR()/25.4, cycloid.getr()/25.4);
+                }
+            }
+            if (cycloid.isMetricsEnabled()) {
+                writeMetricsCaption(cycloid.getMetrics(), cycloid.getMetric());
+            }
+        }
+    }
+
+    /**
+     * Adds the vertical marks at the middle and the cusps to the current path
+     *
+     * @param flag -1 negative half, 0 whole curve, 1 positive half
+     */
+    private void plotCycloidMarks(int flag, final Cycloid cycloid) {
+        double x = cycloid.PlayfairX(0.0);
+        double y = 0.0;
         writer.printf("%6.3f %6.3f moveto\n", x, y);
         y = 2*cycloid.getr()+10;
         writer.printf("%6.3f %6.3f lineto\n", x, y);
@@ -364,8 +592,6 @@ class PSWriter {
             y = 2*cycloid.getr()+10;
             writer.printf("%6.3f %6.3f lineto\n", x, y);
         }
-        writer.printf("stroke\n");
-        writer.flush();
     }
 
     /**
@@ -379,7 +605,8 @@ class PSWriter {
         double percent = (catenary.getPercent() > 100.0 ? catenary.getPercent()/100.0 : 1.0);
         double minX = catenary.CatenaryX(a, -1*length*percent);
         double maxX = catenary.CatenaryX(a, length*percent);
-        double maxY = catenary.CatenaryY(a, length*percent);
+        // a lopsided load leaves one end higher
+        double maxY = Math.max(catenary.CatenaryY(a, -1*length*percent), catenary.CatenaryY(a, length*percent));
 
         if (split) {
             if (top == 1) {
@@ -423,6 +650,9 @@ class PSWriter {
                                 catenary.getScaleWidth(),
                                 catenary.getScaleHeight());
             }
+            if (catenary.isMetricsEnabled()) {
+                writeMetricsCaption(catenary.getMetrics(), catenary.getMetric());
+            }
         }
 
         writer.printf("gsave\n");
@@ -441,7 +671,7 @@ class PSWriter {
         // finally plotting the curve
         writer.printf("gsave\n");
         writer.printf(".1 setlinewidth\n");
-        plotCatenaryCurve(a, length, (int)(maxX-minX), 0, catenary);
+        plotCatenaryCurve(a, length, 0, catenary);
         writer.printf("grestore\n");
 
         if (top == 1) {
@@ -496,6 +726,9 @@ class PSWriter {
                                 catenary.getScaleWidth(),
                                 catenary.getScaleHeight());
             }
+            if (catenary.isMetricsEnabled()) {
+                writeMetricsCaption(catenary.getMetrics(), catenary.getMetric());
+            }
         }
 
         writer.printf("gsave\n");
@@ -514,7 +747,7 @@ class PSWriter {
         // finally plotting the curve
         writer.printf("gsave\n");
         writer.printf(".1 setlinewidth\n");
-        plotCatenaryCurve(a, length, (int)(maxX-minX)/2, -1, catenary);
+        plotCatenaryCurve(a, length, -1, catenary);
         writer.printf("grestore\n");
 
         writer.printf("grestore\n");
@@ -547,6 +780,9 @@ class PSWriter {
                                 catenary.getScaleWidth(),
                                 catenary.getScaleHeight());
             }
+            if (catenary.isMetricsEnabled()) {
+                writeMetricsCaption(catenary.getMetrics(), catenary.getMetric());
+            }
         }
         writer.printf("gsave\n");
         writer.printf(".35 setlinewidth\n");
@@ -564,7 +800,7 @@ class PSWriter {
         // plotting the curve again
         writer.printf("gsave\n");
         writer.printf(".1 setlinewidth\n");
-        plotCatenaryCurve(a, length, (int)(maxX-minX)/2, 1, catenary);
+        plotCatenaryCurve(a, length, 1, catenary);
         writer.printf("grestore\n");
 
         writer.printf("grestore\n");
@@ -577,46 +813,18 @@ class PSWriter {
      *
      * @param a 'a' in catenary
      * @param length half of cLength
-     * @param res resolution
      * @param flag -1 negative half, 0 whole curve, 1 positive half
      * @param catenary Catenary instance
      */
-    private void plotCatenaryCurve(double a, double length, int res, int flag, final Catenary catenary) {
-        if (res < 20) {
-            res = 50;
-        }
-
-        double x = 0.0;
-        double y = 0.0;
-        if (flag <= 0) {
-            x = catenary.CatenaryX(a, -1*length);
-            y = catenary.CatenaryY(a, -1*length);
-        } else {
-            x = catenary.CatenaryX(a, 0.0);
-            y = catenary.CatenaryY(a, 0.0);
+    private void plotCatenaryCurve(double a, double length, int flag, final Catenary catenary) {
+        Parametric curve = catenary.getKernel(a);
+        strokeCurve(cachedCurve("catenary-page " + catenary.getCurveKey() + " " + a, curve,
+                                -1*length, length, catenary.getChordTolerance(), flag,
+                                catenary.isSymmetricSampling()));
+        if (catenary.getOffsetDistance() > 0) {
+            plotOffsets(catenary.getOffsetCurve(a, false), catenary.getOffsetCurve(a, true),
+                        -1*length, length, catenary.getChordTolerance(), flag);
         }
-
-        writer.printf("%6.3f %6.3f moveto\n", x, y);
-        for (int i=1; i<=res; ++i) {
-            if (flag == -1) {
-                x = catenary.CatenaryX(a, -1*length+length*i/res);
-                y = catenary.CatenaryY(a, -1*length+length*i/res);
-            } else if (flag == 0) {
-                x = catenary.CatenaryX(a, -1*length+2*length*i/res);
-                y = catenary.CatenaryY(a, -1*length+2*length*i/res);
-            } else {
-                x = catenary.CatenaryX(a, length*i/res);
-                y = catenary.CatenaryY(a, length*i/res);
-            }
-            writer.printf("%6.3f %6.3f lineto\n", x, y);
-            if (i%10 == 0) {
-                writer.printf("stroke\n");
-                writer.printf("%6.3f %6.3f moveto\n", x, y);
-            }
-        }
-        writer.printf("stroke\n");
-        writer.flush();
-
         writer.printf("stroke\n");
         writer.flush();
     }
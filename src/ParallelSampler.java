@@ -0,0 +1,182 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs sampling loops on a shared pool of worker threads, one chunk of the index range per task.
+ *
+ * Every sample is computed by the same code whichever chunk it falls in, and
+ * written to its own slot of a shared primitive buffer, so the result is
+ * identical to the serial loop for any number of threads. Chunks start at
+ * multiples of UniformKernel.ANCHOR, where a kernel run re-anchors anyway,
+ * so splitting a run costs no extra evaluations.
+ *
+ * Ranges too small to split, and loops started from a worker, run on the
+ * calling thread: a task costs more than it saves there, and a worker waiting
+ * for the pool could wait for itself.
+ */
+final class ParallelSampler {
+    static final int MIN_CHUNK = 4096; // samples per task at least
+    static final int TASKS_PER_THREAD = 4; // spread chunks of uneven cost
+
+    private static int threads = Runtime.getRuntime().availableProcessors();
+    private static ExecutorService pool; // created on first parallel loop
+
+    /**
+     * Computes samples from..to-1 of a loop.
+     */
+    interface Chunk {
+        void run(int from, int to) throws Exception;
+    }
+
+    private ParallelSampler() {
+    }
+
+    /**
+     * Returns the number of threads loops are spread over, 1 for serial sampling.
+     */
+    static synchronized int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Sets the number of threads loops are spread over.
+     *
+     * @param count threads, 1 or less to sample serially; defaults to the number of cores
+     */
+    static synchronized void setThreads(int count) {
+        count = Math.max(1, count);
+        if (count != threads && pool != null) {
+            pool.shutdown(); // running loops finish on the old pool
+            pool = null;
+        }
+        threads = count;
+    }
+
+    private static synchronized ExecutorService getPool() {
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private int count = 0;
+
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Worker(task, "sampler-" + (++count));
+                    thread.setDaemon(true); // never keeps the applet or a command line export alive
+                    return thread;
+                }
+                });
+        }
+        return pool;
+    }
+
+    /**
+     * Returns true if a loop over from..to-1 in chunks of at least grain would be split across threads.
+     */
+    static boolean isParallel(int from, int to, int grain) {
+        return getThreads() > 1 && to-from >= 2*grain && !(Thread.currentThread() instanceof Worker);
+    }
+
+    /**
+     * Runs chunk over from..to-1, split into chunks of at least MIN_CHUNK samples on the pool.
+     *
+     * @throws Exception the first exception of a chunk, after all of them have stopped
+     */
+    static void run(int from, int to, Chunk chunk) throws Exception {
+        run(from, to, MIN_CHUNK, chunk);
+    }
+
+    /**
+     * Runs chunk over from..to-1, split into chunks on the pool when the range is large enough.
+     *
+     * Returns when every chunk is done; the chunks must only write to disjoint slots.
+     *
+     * @param grain smallest number of indices worth a task, e.g. 1 for a costly item each
+     * @throws Exception the first exception of a chunk, after all of them have stopped
+     */
+    static void run(int from, int to, int grain, final Chunk chunk) throws Exception {
+        if (!isParallel(from, to, grain)) {
+            chunk.run(from, to);
+            return;
+        }
+        int count = getThreads();
+        int size = Math.max(grain, (to-from+count*TASKS_PER_THREAD-1)/(count*TASKS_PER_THREAD));
+        ExecutorService executor = getPool();
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        int first = -1;
+        for (int start=from; start<to; ) {
+            int end = start+size;
+            if (end >= to) {
+                end = to;
+            } else if (size >= UniformKernel.ANCHOR) {
+                end -= end%UniformKernel.ANCHOR;
+            }
+            if (first < 0) {
+                first = end; // the calling thread takes the first chunk itself
+            } else {
+                final int a = start;
+                final int b = end;
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        chunk.run(a, b);
+                        return null;
+                    }
+                    }));
+            }
+            start = end;
+        }
+        Throwable failure = null;
+        try {
+            chunk.run(from, first);
+        } catch (Throwable e) {
+            failure = e;
+        }
+        for (int i=0; i<futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            }
+        }
+        if (failure instanceof Exception) {
+            throw (Exception)failure;
+        } else if (failure instanceof Error) {
+            throw (Error)failure;
+        } else if (failure != null) {
+            throw new Exception(failure);
+        }
+    }
+
+    /**
+     * Same as UniformKernel.sample(), with the samples split across threads.
+     */
+    static void sample(final UniformKernel curve, final double t0, final double t1, final int res,
+                       final int from, int to, final double[] xs, final double[] ys, final int offset) {
+        try {
+            run(from, to, new Chunk() {
+                public void run(int a, int b) {
+                    curve.sample(t0, t1, res, a, b, xs, ys, offset+a-from);
+                }
+                });
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            // kernel runs throw no checked exception
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A pool thread; loops started from one run serially.
+     */
+    private static final class Worker extends Thread {
+        Worker(Runnable task, String name) {
+            super(task, name);
+        }
+    }
+}
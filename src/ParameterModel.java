@@ -0,0 +1,162 @@
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+
+/**
+ * Size and shape parameters shared by the tabs of CycloidPanel.
+ *
+ * The text fields, sliders and buttons only set the model; CycloidPanel
+ * listens to it and passes each change to the tabs it concerns. A setter
+ * fires a PropertyChangeEvent, named by one of the constants below, only
+ * when the value actually changes, so a control showing the model value
+ * again does not come back as another change.
+ */
+class ParameterModel {
+    static final String WIDTH = "width";
+    static final String HEIGHT = "height";
+    static final String PERCENT = "percent";
+    static final String ARCHES = "arches";
+    static final String TOTAL_LENGTH = "totalLength";
+    static final String SCALE_WIDTH = "scaleWidth";
+    static final String SCALE_HEIGHT = "scaleHeight";
+    static final String METRIC = "metric";
+    static final String LOAD = "load";
+    static final String TAPER = "taper";
+    static final String[] PROPERTIES = {
+        WIDTH, HEIGHT, PERCENT, ARCHES, TOTAL_LENGTH, SCALE_WIDTH, SCALE_HEIGHT, METRIC, LOAD, TAPER
+    };
+
+    private final PropertyChangeSupport changes = new PropertyChangeSupport(this);
+    private double width = 200.0; // cycloid/curve width or catenary length, in metric units
+    private double height = 20.0; // cycloid/curve height or catenary depth, in metric units
+    private double percent = 110.0;
+    private int arches = 1;
+    private double totalLength = 0.0; // cycloid template length in metric units, 0 to use arches
+    private double scaleWidth = 1.0;
+    private double scaleHeight = 1.0;
+    private Metric metric = Metric.MM;
+    private Load load = Load.CHAIN;
+    private double taper = 0.5;
+
+    public void addPropertyChangeListener(PropertyChangeListener listener) {
+        changes.addPropertyChangeListener(listener);
+    }
+
+    public void removePropertyChangeListener(PropertyChangeListener listener) {
+        changes.removePropertyChangeListener(listener);
+    }
+
+    public double getWidth() {
+        return width;
+    }
+
+    public void setWidth(double width) {
+        double old = this.width;
+        this.width = width;
+        changes.firePropertyChange(WIDTH, old, width);
+    }
+
+    public double getHeight() {
+        return height;
+    }
+
+    public void setHeight(double height) {
+        double old = this.height;
+        this.height = height;
+        changes.firePropertyChange(HEIGHT, old, height);
+    }
+
+    public double getPercent() {
+        return percent;
+    }
+
+    public void setPercent(double percent) {
+        double old = this.percent;
+        this.percent = percent;
+        changes.firePropertyChange(PERCENT, old, percent);
+    }
+
+    public int getArches() {
+        return arches;
+    }
+
+    public void setArches(int arches) {
+        int old = this.arches;
+        this.arches = arches;
+        changes.firePropertyChange(ARCHES, old, arches);
+    }
+
+    public double getTotalLength() {
+        return totalLength;
+    }
+
+    /**
+     * Sets the length of a cycloid template instead of its number of arches.
+     *
+     * @param totalLength length from the first cusp, or 0 to use getArches()
+     */
+    public void setTotalLength(double totalLength) {
+        double old = this.totalLength;
+        this.totalLength = totalLength;
+        changes.firePropertyChange(TOTAL_LENGTH, old, totalLength);
+    }
+
+    public double getScaleWidth() {
+        return scaleWidth;
+    }
+
+    public void setScaleWidth(double scaleWidth) {
+        double old = this.scaleWidth;
+        this.scaleWidth = scaleWidth;
+        changes.firePropertyChange(SCALE_WIDTH, old, scaleWidth);
+    }
+
+    public double getScaleHeight() {
+        return scaleHeight;
+    }
+
+    public void setScaleHeight(double scaleHeight) {
+        double old = this.scaleHeight;
+        this.scaleHeight = scaleHeight;
+        changes.firePropertyChange(SCALE_HEIGHT, old, scaleHeight);
+    }
+
+    public Metric getMetric() {
+        return metric;
+    }
+
+    /**
+     * Switches between mm and inch; width, height and total length are converted so that the curve keeps its size.
+     */
+    public void setMetric(Metric metric) {
+        Metric old = this.metric;
+        if (metric == old) {
+            return;
+        }
+        this.metric = metric;
+        changes.firePropertyChange(METRIC, old, metric);
+        double factor = (metric == Metric.MM ? 25.4 : 1/25.4);
+        setWidth(width*factor);
+        setHeight(height*factor);
+        setTotalLength(totalLength*factor);
+    }
+
+    public Load getLoad() {
+        return load;
+    }
+
+    public void setLoad(Load load) {
+        Load old = this.load;
+        this.load = load;
+        changes.firePropertyChange(LOAD, old, load);
+    }
+
+    public double getTaper() {
+        return taper;
+    }
+
+    public void setTaper(double taper) {
+        double old = this.taper;
+        this.taper = taper;
+        changes.firePropertyChange(TAPER, old, taper);
+    }
+}
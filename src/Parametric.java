@@ -0,0 +1,16 @@
+/**
+ * A plane curve evaluated at a parameter value t.
+ *
+ * Lets PointBuffer sample cycloid/catenary figures without knowing which one it is.
+ */
+interface Parametric {
+    /**
+     * Returns X coordinate of the curve at t.
+     */
+    double x(double t);
+
+    /**
+     * Returns Y coordinate of the curve at t.
+     */
+    double y(double t);
+}
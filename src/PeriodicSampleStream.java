@@ -0,0 +1,67 @@
+/**
+ * SampleStream repeating one sampled period of a periodic curve.
+ *
+ * Sample k is period sample (k mod m) translated by (k div m) periods in X, so a
+ * curve of any number of periods costs the evaluation of a single one.
+ */
+class PeriodicSampleStream implements SampleStream {
+    private final PointBuffer period;
+    private final int m;
+    private final double shiftX;
+    private final double offsetX;
+    private final long last;
+    private long next;
+
+    /**
+     * @param period samples of one period; only the first m are used
+     * @param m number of samples per period
+     * @param shiftX X distance between consecutive periods
+     * @param first index of the first sample, may be negative
+     * @param last index of the last sample (inclusive)
+     * @param offsetX added to every X, e.g. to draw a page in local coordinates
+     */
+    PeriodicSampleStream(PointBuffer period, int m, double shiftX,
+                         long first, long last, double offsetX) {
+        this.period = period;
+        this.m = m;
+        this.shiftX = shiftX;
+        this.offsetX = offsetX;
+        this.last = last;
+        this.next = first;
+    }
+
+    public int read(double[] xs, double[] ys) {
+        if (next > last) {
+            return -1;
+        }
+        int n = (int)Math.min(xs.length, last+1-next);
+        for (int i=0; i<n; i++) {
+            long k = next+i;
+            long q = k/m;
+            if (k%m < 0) {
+                q--; // round toward negative infinity
+            }
+            int j = (int)(k-q*m);
+            xs[i] = period.getX(j)+q*shiftX+offsetX;
+            ys[i] = period.getY(j);
+        }
+        next += n;
+        return n;
+    }
+
+    /**
+     * Appends the remaining samples to points.
+     *
+     * @param points receives the samples
+     */
+    public void copyTo(PointBuffer points) {
+        double[] xs = new double[1024];
+        double[] ys = new double[1024];
+        int n;
+        while ((n = read(xs, ys)) >= 0) {
+            for (int i=0; i<n; i++) {
+                points.add(xs[i], ys[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,463 @@
+import java.util.NoSuchElementException;
+
+/**
+ * Stores X/Y coordinates which represent either cycloid or catenary figure.
+ *
+ * Coordinates are kept in two growable primitive arrays instead of one Point
+ * object per sample, so neither object headers nor boxing are paid per point.
+ */
+class PointBuffer {
+    private double[] xs;
+    private double[] ys;
+    private int size;
+
+    public PointBuffer() {
+        // default size to 1024 points to minimize resizing the arrays
+        this(1024);
+    }
+
+    public PointBuffer(int capacity) {
+        xs = new double[capacity];
+        ys = new double[capacity];
+        size = 0;
+    }
+
+    /**
+     * Appends a point to the end of the buffer.
+     *
+     * @param x X coordinate
+     * @param y Y coordinate
+     */
+    public void add(double x, double y) {
+        if (size == xs.length) {
+            grow(size+1);
+        }
+        xs[size] = x;
+        ys[size] = y;
+        size++;
+    }
+
+    /**
+     * Replaces the coordinates of the index'th point.
+     *
+     * @param index index of the point to replace
+     * @param x X coordinate
+     * @param y Y coordinate
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public void set(int index, double x, double y) {
+        checkIndex(index);
+        xs[index] = x;
+        ys[index] = y;
+    }
+
+    /**
+     * Returns X value of the index'th point.
+     *
+     * @param index index of the point
+     * @return the X value of the requested point
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public double getX(int index) {
+        checkIndex(index);
+        return xs[index];
+    }
+
+    /**
+     * Returns Y value of the index'th point.
+     *
+     * @param index index of the point
+     * @return the Y value of the requested point
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public double getY(int index) {
+        checkIndex(index);
+        return ys[index];
+    }
+
+    /**
+     * Increases the capacity of the buffer to hold at least twice the requested size.
+     *
+     * This is mainly to reduce chance of the arrays being increased dynamically
+     * @param size the desired minimum capacity
+     */
+    public void resize(int size) {
+        if (xs.length < size*2) {
+            grow(size*2);
+        }
+    }
+
+    /**
+     * Returns the number of points in the buffer.
+     *
+     * @return the number of points residing in the buffer
+     */
+    public int length() {
+        return size;
+    }
+
+    /**
+     * Removes all points; the capacity is kept for the next use.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Drops every point from index length on.
+     *
+     * @param length number of points to keep
+     * @throws IndexOutOfBoundsException if length is negative or above length()
+     */
+    public void truncate(int length) {
+        if (length < 0 || length > size) {
+            throw new IndexOutOfBoundsException("Length: " + length + ", Size: " + size);
+        }
+        size = length;
+    }
+
+    /**
+     * Replaces the contents with res+1 samples of curve taken at uniform steps from t0 to t1.
+     *
+     * A UniformKernel evaluates all of them in one pass, split across the
+     * threads of ParallelSampler when there are enough of them.
+     * @param curve curve to evaluate
+     * @param t0 first parameter value
+     * @param t1 last parameter value
+     * @param res number of intervals between samples
+     */
+    public void fill(Parametric curve, double t0, double t1, int res) {
+        if (xs.length < res+1) {
+            grow(res+1);
+        }
+        if (curve instanceof UniformKernel) {
+            ParallelSampler.sample((UniformKernel)curve, t0, t1, res, 0, res+1, xs, ys, 0);
+        } else {
+            for (int i=0; i<=res; i++) {
+                double t = (t1-t0)*i/res+t0;
+                xs[i] = curve.x(t);
+                ys[i] = curve.y(t);
+            }
+        }
+        size = res+1;
+    }
+
+    /**
+     * Same as fill() for a curve which is mirror symmetric about the middle of [t0, t1].
+     *
+     * Only the upper half of the range is evaluated; each lower sample is the mirror
+     * image of its upper partner across the vertical line through x((t0+t1)/2).
+     * The curve must satisfy y(tc-s) == y(tc+s) and x(tc-s) == 2x(tc)-x(tc+s).
+     *
+     * @param curve symmetric curve to evaluate
+     * @param t0 first parameter value
+     * @param t1 last parameter value
+     * @param res number of intervals between samples
+     */
+    public void fillSymmetric(Parametric curve, double t0, double t1, int res) {
+        if (xs.length < res+1) {
+            grow(res+1);
+        }
+        int lo = res-res/2; // first sample at or above the middle
+        if (curve instanceof UniformKernel) {
+            ParallelSampler.sample((UniformKernel)curve, t0, t1, res, lo, res+1, xs, ys, lo);
+        } else {
+            for (int i=lo; i<=res; i++) {
+                double t = (t1-t0)*i/res+t0;
+                xs[i] = curve.x(t);
+                ys[i] = curve.y(t);
+            }
+        }
+        double cx = curve.x((t0+t1)/2);
+        for (int i=0; i<lo; i++) {
+            xs[i] = 2*cx-xs[res-i];
+            ys[i] = ys[res-i];
+        }
+        size = res+1;
+    }
+
+    /**
+     * Applies the affine map x' = sx*x+tx, y' = sy*y+ty to every point in place.
+     *
+     * @param sx horizontal scale
+     * @param sy vertical scale
+     * @param tx horizontal offset
+     * @param ty vertical offset
+     */
+    public void transform(double sx, double sy, double tx, double ty) {
+        for (int i=0; i<size; i++) {
+            xs[i] = sx*xs[i]+tx;
+            ys[i] = sy*ys[i]+ty;
+        }
+    }
+
+    /**
+     * Replaces the contents with the points of source mapped by x' = sx*x+tx, y' = sy*y+ty.
+     *
+     * @param source points to map, left unchanged
+     * @param sx horizontal scale
+     * @param sy vertical scale
+     * @param tx horizontal offset
+     * @param ty vertical offset
+     */
+    public void transform(PointBuffer source, double sx, double sy, double tx, double ty) {
+        if (xs.length < source.size) {
+            grow(source.size);
+        }
+        for (int i=0; i<source.size; i++) {
+            xs[i] = sx*source.xs[i]+tx;
+            ys[i] = sy*source.ys[i]+ty;
+        }
+        size = source.size;
+    }
+
+    /**
+     * Replaces the contents with a copy of the points of source.
+     *
+     * @param source points to copy, left unchanged
+     */
+    public void copyFrom(PointBuffer source) {
+        if (xs.length < source.size) {
+            grow(source.size);
+        }
+        System.arraycopy(source.xs, 0, xs, 0, source.size);
+        System.arraycopy(source.ys, 0, ys, 0, source.size);
+        size = source.size;
+    }
+
+    /**
+     * Appends every remaining sample of a stream.
+     *
+     * @param samples stream to drain
+     * @throws Exception if a sample cannot be computed
+     */
+    public void addAll(SampleStream samples) throws Exception {
+        double[] chunkX = new double[1024];
+        double[] chunkY = new double[1024];
+        int n;
+        while ((n = samples.read(chunkX, chunkY)) >= 0) {
+            for (int i=0; i<n; i++) {
+                add(chunkX[i], chunkY[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns a stream reading the points from the first to the last.
+     *
+     * Like a view, the stream reads the backing arrays and must not outlive
+     * a clear() or refill of the buffer.
+     */
+    public SampleStream stream() {
+        return new SampleStream() {
+            private int next = 0;
+
+            public int read(double[] chunkX, double[] chunkY) {
+                if (next >= size) {
+                    return -1;
+                }
+                int n = Math.min(chunkX.length, size-next);
+                System.arraycopy(xs, next, chunkX, 0, n);
+                System.arraycopy(ys, next, chunkY, 0, n);
+                next += n;
+                return n;
+            }
+        };
+    }
+
+    /**
+     * Passes every point, in order, to consumer.
+     *
+     * Any number of passes may run over the same buffer, including concurrent ones,
+     * as long as nobody modifies it meanwhile.
+     * @param consumer receives X/Y of each point
+     */
+    public void forEach(DoubleBiConsumer consumer) {
+        forEach(0, size, consumer);
+    }
+
+    /**
+     * Passes the points of a range, in order, to consumer.
+     *
+     * @param fromIndex low endpoint (inclusive) of the range
+     * @param toIndex high endpoint (exclusive) of the range
+     * @param consumer receives X/Y of each point
+     * @throws IndexOutOfBoundsException endpoint index value out of range
+     */
+    public void forEach(int fromIndex, int toIndex, DoubleBiConsumer consumer) {
+        if (fromIndex < 0 || toIndex > size) {
+            throw new IndexOutOfBoundsException("range [" + fromIndex + ", " + toIndex
+                + ") of " + size + " points");
+        }
+        for (int i=fromIndex; i<toIndex; i++) {
+            consumer.accept(xs[i], ys[i]);
+        }
+    }
+
+    /**
+     * Returns a new cursor positioned before the first point.
+     */
+    public Cursor cursor() {
+        return new Cursor(0, size);
+    }
+
+    /**
+     * Returns a read-only view over all points; nothing is copied.
+     */
+    public View view() {
+        return new View(0, size);
+    }
+
+    /**
+     * Returns a read-only view over a range of points; nothing is copied.
+     *
+     * @param fromIndex low endpoint (inclusive) of the range
+     * @param toIndex high endpoint (exclusive) of the range
+     * @throws IndexOutOfBoundsException endpoint index value out of range
+     * @throws IllegalArgumentException if the endpoint indices are out of order
+     */
+    public View view(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > size) {
+            throw new IndexOutOfBoundsException("view [" + fromIndex + ", " + toIndex
+                + ") of " + size + " points");
+        }
+        if (fromIndex > toIndex) {
+            throw new IllegalArgumentException("fromIndex(" + fromIndex
+                + ") > toIndex(" + toIndex + ")");
+        }
+        return new View(fromIndex, toIndex);
+    }
+
+    /**
+     * Read-only window over a range of the buffer.
+     *
+     * Reads go straight to the backing arrays, so a view sees later set() calls
+     * but must not be used after the buffer has been cleared or refilled.
+     */
+    class View {
+        private final int from;
+        private final int to;
+
+        private View(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        public double getX(int index) {
+            return xs[from+checkViewIndex(index)];
+        }
+
+        public double getY(int index) {
+            return ys[from+checkViewIndex(index)];
+        }
+
+        public int length() {
+            return to-from;
+        }
+
+        /**
+         * Passes every point of the view, in order, to consumer.
+         *
+         * @param consumer receives X/Y of each point
+         */
+        public void forEach(DoubleBiConsumer consumer) {
+            PointBuffer.this.forEach(from, to, consumer);
+        }
+
+        /**
+         * Returns a new cursor positioned before the first point of the view.
+         */
+        public Cursor cursor() {
+            return new Cursor(from, to);
+        }
+
+        private int checkViewIndex(int index) {
+            if (index < 0 || index >= to-from) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (to-from));
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Independent read position over a range of the buffer.
+     *
+     * Each cursor keeps its own position, so several passes can read the same
+     * buffer at once; reset() rewinds a cursor for another pass without allocating.
+     * <pre>
+     * while (cursor.next()) {
+     *     use(cursor.x(), cursor.y());
+     * }
+     * </pre>
+     */
+    class Cursor {
+        private final int from;
+        private final int to;
+        private int index;
+
+        private Cursor(int from, int to) {
+            this.from = from;
+            this.to = to;
+            this.index = from-1;
+        }
+
+        /**
+         * Advances to the next point.
+         *
+         * @return false if there are no more points
+         */
+        public boolean next() {
+            if (index+1 >= to) {
+                index = to;
+                return false;
+            }
+            index++;
+            return true;
+        }
+
+        public double x() {
+            return xs[current()];
+        }
+
+        public double y() {
+            return ys[current()];
+        }
+
+        /**
+         * Returns the position of the current point relative to the start of the range.
+         */
+        public int position() {
+            return current()-from;
+        }
+
+        /**
+         * Rewinds the cursor to before the first point of its range.
+         */
+        public void reset() {
+            index = from-1;
+        }
+
+        private int current() {
+            if (index < from || index >= to) {
+                throw new NoSuchElementException();
+            }
+            return index;
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    private void grow(int capacity) {
+        int newCapacity = Math.max(capacity, xs.length*3/2+1);
+        double[] newXs = new double[newCapacity];
+        double[] newYs = new double[newCapacity];
+        System.arraycopy(xs, 0, newXs, 0, size);
+        System.arraycopy(ys, 0, newYs, 0, size);
+        xs = newXs;
+        ys = newYs;
+    }
+}
@@ -0,0 +1,135 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of sampled polylines shared by the preview and all exports.
+ *
+ * A polyline is keyed by curve type, every parameter it depends on and its
+ * resolution, so repainting or exporting again at unchanged parameters only
+ * costs a lookup. Cached polylines are shared and must not be modified.
+ */
+class PolylineCache {
+    static final long MAX_POINTS = 1 << 21; // 32MB of coordinates
+
+    private static final PolylineCache shared = new PolylineCache(MAX_POINTS);
+
+    private final LinkedHashMap<String, PointBuffer> lines =
+        new LinkedHashMap<String, PointBuffer>(16, 0.75f, true);
+    private final long capacity;
+    private long points = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * @param capacity maximum number of points kept over all polylines
+     */
+    PolylineCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the cache used by Cycloid, Catenary and their writers.
+     */
+    static PolylineCache getShared() {
+        return shared;
+    }
+
+    /**
+     * Returns the polyline cached under key, or null.
+     *
+     * @param key curve type, parameters and resolution
+     */
+    public synchronized PointBuffer get(String key) {
+        PointBuffer line = lines.get(key);
+        if (line == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return line;
+    }
+
+    /**
+     * Caches a polyline, evicting the least recently used ones to make room.
+     *
+     * A polyline larger than the whole cache is not kept.
+     *
+     * @param key curve type, parameters and resolution
+     * @param line polyline, owned by the cache from now on
+     */
+    public synchronized void put(String key, PointBuffer line) {
+        if (line.length() > capacity) {
+            return;
+        }
+        PointBuffer old = lines.put(key, line);
+        if (old != null) {
+            points -= old.length();
+        }
+        points += line.length();
+        Iterator<PointBuffer> it = lines.values().iterator();
+        while (points > capacity && it.hasNext()) {
+            PointBuffer eldest = it.next();
+            if (eldest == line) {
+                continue;
+            }
+            points -= eldest.length();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Returns the polyline under key as a stream, reading samples into the cache on a miss.
+     *
+     * Polylines with more than MAX_POINTS points are not cached, samples is
+     * returned unread instead.
+     *
+     * @param key curve type, parameters and resolution
+     * @param count number of samples
+     * @param samples samples of the polyline, read only on a miss
+     * @throws Exception if a sample cannot be computed
+     */
+    public SampleStream cached(String key, long count, SampleStream samples) throws Exception {
+        if (count > capacity) {
+            return samples;
+        }
+        PointBuffer line = get(key);
+        if (line == null) {
+            line = new PointBuffer((int)count);
+            line.addAll(samples);
+            put(key, line);
+        }
+        return line.stream();
+    }
+
+    /**
+     * Drops every polyline; the counters are kept.
+     */
+    public synchronized void clear() {
+        lines.clear();
+        points = 0;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getPointCount() {
+        return points;
+    }
+
+    public synchronized String toString() {
+        return String.format("%d polylines (%d points), %d hits, %d misses, %d evictions",
+                             lines.size(), points, hits, misses, evictions);
+    }
+}
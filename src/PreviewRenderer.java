@@ -0,0 +1,147 @@
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.geom.Line2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.JComponent;
+import javax.swing.SwingWorker;
+
+/**
+ * Draws the preview of a tab into an image on a background thread; the tab only copies it to the screen.
+ *
+ * A tab describes its preview as a Scene, a copy of the parameters it depends
+ * on taken on the event dispatch thread. When the scene or the size of the
+ * tab changes, a SwingWorker samples and strokes it into a new image while
+ * the last finished one stays on screen. A newer scene cancels the render of
+ * an older one, and a cancelled render which finishes anyway is dropped.
+ * Finished images replace the shown one on the event thread, so a repaint
+ * never sees one half drawn.
+ */
+final class PreviewRenderer {
+    private static final int CHECK_EVERY = 4096; // segments stroked between checks for cancellation
+
+    /**
+     * Parameters of a preview, copied so that they can be sampled off the event thread.
+     */
+    interface Scene {
+        /**
+         * Returns a string which changes whenever the preview would.
+         */
+        String getKey();
+
+        /**
+         * Returns the polyline to draw, in pixels of a width x height image.
+         *
+         * Called on a worker thread; must only read the scene and thread-safe caches.
+         *
+         * @throws Exception if the curve cannot be sampled
+         */
+        PointBuffer sample(int width, int height) throws Exception;
+    }
+
+    private final JComponent view;
+    // only touched on the event dispatch thread
+    private BufferedImage image; // last finished preview, null before the first one
+    private String imageKey; // scene and size of image
+    private Renderer worker; // render in progress, null if image is up to date
+
+    /**
+     * @param view component the preview is drawn on
+     */
+    PreviewRenderer(JComponent view) {
+        this.view = view;
+    }
+
+    /**
+     * Draws the last finished preview, and starts rendering scene if it is not rendered or being rendered.
+     *
+     * Call from paintComponent(), on the event dispatch thread.
+     */
+    public void paint(Graphics g, Scene scene) {
+        int width = view.getWidth();
+        int height = view.getHeight();
+        String key = scene.getKey() + " " + width + "x" + height;
+        if (!key.equals(imageKey) && (worker == null || !key.equals(worker.key))) {
+            if (worker != null) {
+                worker.cancel(true); // stale, the user has changed a parameter since
+            }
+            worker = null;
+            if (width > 0 && height > 0) {
+                worker = new Renderer(scene, key, width, height, view.getForeground());
+                worker.execute();
+            }
+        }
+        if (image != null) {
+            g.drawImage(image, 0, 0, null);
+        }
+    }
+
+    /**
+     * Returns true if the preview on screen is the one of the last scene painted.
+     */
+    public boolean isCurrent() {
+        return worker == null;
+    }
+
+    /**
+     * Samples and strokes one scene into its own image.
+     */
+    private final class Renderer extends SwingWorker<BufferedImage, Void> {
+        private final Scene scene;
+        private final String key;
+        private final int width;
+        private final int height;
+        private final Color color;
+
+        Renderer(Scene scene, String key, int width, int height, Color color) {
+            this.scene = scene;
+            this.key = key;
+            this.width = width;
+            this.height = height;
+            this.color = color;
+        }
+
+        protected BufferedImage doInBackground() throws Exception {
+            PointBuffer line = scene.sample(width, height);
+            if (isCancelled()) {
+                return null;
+            }
+            BufferedImage frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g2 = frame.createGraphics();
+            try {
+                g2.setColor(color);
+                // Use Line2D since Graphics drawLine doesn't take doubles
+                Line2D.Double segment = new Line2D.Double();
+                for (int i=1; i<line.length(); i++) {
+                    segment.setLine(line.getX(i-1), line.getY(i-1), line.getX(i), line.getY(i));
+                    g2.draw(segment);
+                    if (i%CHECK_EVERY == 0 && isCancelled()) {
+                        return null;
+                    }
+                }
+            } finally {
+                g2.dispose();
+            }
+            return frame;
+        }
+
+        protected void done() {
+            if (worker != this) {
+                return; // superseded by a newer scene
+            }
+            worker = null;
+            imageKey = key;
+            try {
+                image = get();
+            } catch (InterruptedException e) {
+                image = null;
+            } catch (ExecutionException e) {
+                // parameters without a curve, e.g. while typing; shows nothing until they change
+                image = null;
+            }
+            view.repaint();
+        }
+    }
+}
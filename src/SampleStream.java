@@ -0,0 +1,17 @@
+/**
+ * Pull-based source of curve samples which file writers read chunk by chunk.
+ *
+ * Samples are produced only when a writer asks for them, so an export never
+ * needs to hold the whole curve in memory.
+ */
+interface SampleStream {
+    /**
+     * Reads the next samples into xs/ys starting at index 0.
+     *
+     * @param xs receives X coordinates; its length is the maximum chunk size
+     * @param ys receives Y coordinates; at least as long as xs
+     * @return number of samples read, or -1 if the stream is exhausted
+     * @throws Exception if a sample cannot be computed
+     */
+    int read(double[] xs, double[] ys) throws Exception;
+}
@@ -0,0 +1,99 @@
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps curve samples normalized to unit size, keyed by the ratio that decides their shape.
+ *
+ * Width, height and the page scales only stretch a normalized shape, so when
+ * they change the cached samples are rescaled rather than evaluated again.
+ * Previews are sampled on PreviewRenderer threads, so lookups are synchronized.
+ */
+class ShapeCache {
+    private static final int MAX_SHAPES = 8; // a few resolutions/ratios, e.g. while dragging a slider
+
+    private final LinkedHashMap<String, PointBuffer> shapes =
+        new LinkedHashMap<String, PointBuffer>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, PointBuffer> eldest) {
+                return size() > MAX_SHAPES;
+            }
+        };
+    // shared by every cache: a ratio only depends on its key
+    private static final HashMap<String, Double> ratios = new HashMap<String, Double>();
+
+    /**
+     * Returns res+1 samples of a unit curve, evaluating it only if the key is new.
+     *
+     * @param key identifies the shape: curve, shape ratio, range and resolution
+     * @param unit curve of unit size with the wanted shape
+     * @param t0 first parameter value
+     * @param t1 last parameter value
+     * @param res number of intervals between samples
+     * @param symmetric true to evaluate one half with fillSymmetric()
+     * @return normalized samples, shared; must not be modified
+     */
+    public synchronized PointBuffer getShape(String key, Parametric unit, double t0, double t1,
+                                int res, boolean symmetric) {
+        PointBuffer shape = shapes.get(key);
+        if (shape == null) {
+            shape = new PointBuffer(res+1);
+            if (symmetric) {
+                shape.fillSymmetric(unit, t0, t1, res);
+            } else {
+                shape.fill(unit, t0, t1, res);
+            }
+            shapes.put(key, shape);
+        }
+        return shape;
+    }
+
+    /**
+     * Returns samples of a unit curve within tolerance of it, evaluating it only if the key is new.
+     *
+     * @param key identifies the shape: curve, shape ratio, range and tolerance
+     * @param unit curve of unit size with the wanted shape
+     * @param t0 first parameter value
+     * @param t1 last parameter value
+     * @param tolerance largest chord deviation, in unit curve coordinates
+     * @param symmetric true to subdivide one half and mirror it
+     * @return normalized samples, shared; must not be modified
+     */
+    public synchronized PointBuffer getAdaptiveShape(String key, Parametric unit, double t0, double t1,
+                                        double tolerance, boolean symmetric) {
+        PointBuffer shape = shapes.get(key);
+        if (shape == null) {
+            shape = new PointBuffer();
+            AdaptiveSampler sampler = new AdaptiveSampler(unit, tolerance);
+            if (symmetric) {
+                sampler.sampleSymmetric(t0, t1, shape);
+            } else {
+                sampler.sample(t0, t1, shape);
+            }
+            shapes.put(key, shape);
+        }
+        return shape;
+    }
+
+    /**
+     * Returns a dimensionless constant stored by putRatio() on any cache, or null.
+     *
+     * @param key identifies the constant, e.g. a shape ratio
+     */
+    public Double getRatio(String key) {
+        synchronized (ratios) {
+            return ratios.get(key);
+        }
+    }
+
+    /**
+     * Stores a dimensionless constant, e.g. a/w of a catenary for its d/w.
+     */
+    public void putRatio(String key, double ratio) {
+        synchronized (ratios) {
+            if (ratios.size() >= 1024) {
+                ratios.clear(); // ratios are cheap to recompute, keep the map bounded
+            }
+            ratios.put(key, ratio);
+        }
+    }
+}
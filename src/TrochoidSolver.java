@@ -0,0 +1,173 @@
+/**
+ * Solves u+r*sin(u/R) = X for u, which inverts the X coordinate of the trochoid.
+ *
+ * Each solve starts from the ChebyshevInverse table of the ratio r/R, or, if
+ * there is none, from the previous solution, so an equal-X export needs about
+ * one Halley step per sample instead of a search from scratch. Every step is
+ * safeguarded by the bracket
+ * [X-r, X+r], which always holds a root; a step leaving it is replaced by
+ * bisection.
+ */
+class TrochoidSolver {
+    static final double TOLERANCE = 1e-9; // on |u+r*sin(u/R)-X|, relative to max(1, |X|)
+    static final int MAX_ITERATIONS = 100;
+
+    // previous solve, the starting point of the next one
+    private boolean warm = false;
+    private double lastR;
+    private double lastr;
+    private double lastX;
+    private double lastU;
+
+    private final boolean useTables;
+    private final double tolerance;
+    private double tableRatio = Double.NaN;
+    private ChebyshevInverse table; // for tableRatio, null if there is none
+
+    private long solves = 0;
+    private long tableStarts = 0;
+    private long iterations = 0;
+    private long bisections = 0;
+    private int maxIterations = 0;
+
+    TrochoidSolver() {
+        this(true, TOLERANCE);
+    }
+
+    /**
+     * @param useTables false to start from the previous solution only, as
+     *        ChebyshevInverse does while building a table
+     * @param tolerance on |u+r*sin(u/R)-X|, relative to max(1, |X|); 0 solves
+     *        to full precision
+     */
+    TrochoidSolver(boolean useTables, double tolerance) {
+        this.useTables = useTables;
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Returns u with u+r*sin(u/R) = X.
+     *
+     * @param R radius of the rolling circle
+     * @param r distance of the tracing point from its center
+     * @param X target, in the same units as R and r
+     * @throws Exception if R is not positive or no solution is found
+     */
+    public double solve(double R, double r, double X) throws Exception {
+        if (!(R > 0)) {
+            throw new Exception("The cycloid width must be positive.");
+        }
+        double tol = tolerance*Math.max(1.0, Math.abs(X));
+        double lo = X-Math.abs(r);
+        double hi = X+Math.abs(r);
+
+        double u = X;
+        if (useTables && !(r/R == tableRatio)) {
+            tableRatio = r/R;
+            table = ChebyshevInverse.forRatio(tableRatio);
+        }
+        if (useTables && table != null) {
+            u = R*table.eval(X/R);
+            tableStarts++;
+        } else if (warm && R == lastR && r == lastr) {
+            // first order prediction from the previous solution
+            double d = 1+r/R*Math.cos(lastU/R);
+            u = lastU+(X-lastX)/(d > 0.1 ? d : 1.0);
+        }
+        if (!(u >= lo && u <= hi)) {
+            u = (lo+hi)/2;
+        }
+
+        int n = 0;
+        while (true) {
+            double s = Math.sin(u/R);
+            double f = u+r*s-X;
+            if (Math.abs(f) <= tol || hi-lo <= Math.ulp(hi)*4) {
+                break;
+            }
+            if (f > 0) {
+                hi = u;
+            } else {
+                lo = u;
+            }
+            if (++n > MAX_ITERATIONS) {
+                warm = false;
+                throw new Exception("The cycloid is not one-to-one(injective) function.");
+            }
+            double f1 = 1+r/R*Math.cos(u/R);
+            double f2 = -r/(R*R)*s;
+            double next = u-2*f*f1/(2*f1*f1-f*f2); // Halley
+            if (!(next > lo && next < hi)) {
+                next = (lo+hi)/2;
+                bisections++;
+            }
+            if (next == u) {
+                break; // converged to the last bit
+            }
+            u = next;
+        }
+
+        solves++;
+        iterations += n;
+        if (n > maxIterations) {
+            maxIterations = n;
+        }
+        warm = true;
+        lastR = R;
+        lastr = r;
+        lastX = X;
+        lastU = u;
+        return u;
+    }
+
+    /**
+     * Forgets the previous solution, so that the next solve starts cold.
+     *
+     * A run of solves restarted at fixed indices returns the same values
+     * whichever solver, e.g. one per thread, solves it.
+     */
+    public void restart() {
+        warm = false;
+    }
+
+    /**
+     * Forgets the previous solution and clears the counters.
+     */
+    public void reset() {
+        restart();
+        solves = 0;
+        tableStarts = 0;
+        iterations = 0;
+        bisections = 0;
+        maxIterations = 0;
+    }
+
+    public long getSolveCount() {
+        return solves;
+    }
+
+    /**
+     * Returns how many solves started from a ChebyshevInverse table.
+     */
+    public long getTableStartCount() {
+        return tableStarts;
+    }
+
+    public long getIterationCount() {
+        return iterations;
+    }
+
+    public long getBisectionCount() {
+        return bisections;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    public String toString() {
+        return String.format("%d solves (%d from a table), %d iterations (%.2f per solve, at most %d), "
+                             + "%d bisections", solves, tableStarts, iterations,
+                             solves > 0 ? (double)iterations/solves : 0.0, maxIterations, bisections);
+    }
+}
@@ -0,0 +1,263 @@
+import java.util.Arrays;
+
+/**
+ * A Parametric curve which can also evaluate a run of uniform samples in one pass.
+ *
+ * Sample i is taken at t = (t1-t0)*i/res+t0, as in PointBuffer.fill(). Instead of
+ * calling sin/cos or cosh for every sample, a run advances them from sample to
+ * sample by a rotation or by a constant ratio, computing X and Y together, and
+ * re-anchors to exact values every ANCHOR samples to bound the drift. Anchors
+ * sit at multiples of ANCHOR, so a sample has the same value whichever run
+ * computes it; anchor samples equal x(t) and y(t) exactly.
+ */
+abstract class UniformKernel implements Parametric {
+    static final int ANCHOR = 32; // drift stays within a few ulps over this many steps
+
+    /**
+     * Evaluates samples from..to-1 of res+1 uniform samples over [t0, t1].
+     *
+     * @param t0 first parameter value
+     * @param t1 last parameter value
+     * @param res number of intervals between samples
+     * @param from index of the first sample to evaluate
+     * @param to index after the last sample to evaluate
+     * @param xs receives X of sample i at xs[offset+i-from]
+     * @param ys receives Y of sample i at ys[offset+i-from]
+     * @param offset position of sample from in xs/ys
+     */
+    abstract void sample(double t0, double t1, int res, int from, int to,
+                         double[] xs, double[] ys, int offset);
+
+    /**
+     * Returns dx/dt at t.
+     */
+    abstract double dx(double t);
+
+    /**
+     * Returns dy/dt at t.
+     */
+    abstract double dy(double t);
+
+    /**
+     * Returns the parameters strictly between t0 and t1 where dx/dt or dy/dt vanishes, ascending.
+     *
+     * Together with t0 and t1 these are the only candidates for the extent of
+     * the curve, and the only places where a cusp can break its smoothness.
+     */
+    abstract double[] turningPoints(double t0, double t1);
+
+    /**
+     * Returns |c'(t)|, the rate at which arc length grows with t.
+     */
+    double speed(double t) {
+        double dx = dx(t);
+        double dy = dy(t);
+        return Math.sqrt(dx*dx+dy*dy);
+    }
+
+    /**
+     * Returns u/p for every u = phase+2*pi*k in (p*t0, p*t1), for each phase, ascending and without repeats.
+     */
+    static double[] periodicPoints(double t0, double t1, double p, double[] phases) {
+        double lo = Math.min(p*t0, p*t1);
+        double hi = Math.max(p*t0, p*t1);
+        double[] points = new double[0];
+        int n = 0;
+        for (int i=0; i<phases.length; i++) {
+            double u = phases[i]+2*Math.PI*Math.ceil((lo-phases[i])/(2*Math.PI));
+            for (; u < hi; u += 2*Math.PI) {
+                if (u > lo) {
+                    if (n == points.length) {
+                        points = Arrays.copyOf(points, 2*n+4);
+                    }
+                    points[n++] = u/p;
+                }
+            }
+        }
+        Arrays.sort(points, 0, n);
+        // phases may coincide, like the loop and the cusp of a cycloid
+        int distinct = 0;
+        for (int i=0; i<n; i++) {
+            if (distinct == 0 || points[i] != points[distinct-1]) {
+                points[distinct++] = points[i];
+            }
+        }
+        return Arrays.copyOf(points, distinct);
+    }
+
+    /**
+     * Evaluates the curve at arbitrary parameter values.
+     *
+     * The parameters of the curve are fixed when it is built, so nothing is
+     * looked up or branched on per sample; subclasses also share the work
+     * common to X and Y.
+     *
+     * @param ts parameter values
+     * @param from index of the first value to evaluate
+     * @param to index after the last value to evaluate
+     * @param xs receives x(ts[i]) at xs[i]
+     * @param ys receives y(ts[i]) at ys[i]
+     */
+    void eval(double[] ts, int from, int to, double[] xs, double[] ys) {
+        for (int i=from; i<to; i++) {
+            xs[i] = x(ts[i]);
+            ys[i] = y(ts[i]);
+        }
+    }
+
+    /**
+     * Trochoid x = (R*u-r*cos(u+pi/2))*sx, y = (h*sin(u+pi/2)+h)*sy with u = p*t.
+     *
+     * With h = r this is Cycloid.PlayfairX/Y; h = 1 gives a shape normalized in Y.
+     */
+    static class TrochoidCurve extends UniformKernel {
+        private final double R;
+        private final double r;
+        private final double h;
+        private final double p;
+        private final double sx;
+        private final double sy;
+
+        TrochoidCurve(double R, double r, double h, double p, double sx, double sy) {
+            this.R = R;
+            this.r = r;
+            this.h = h;
+            this.p = p;
+            this.sx = sx;
+            this.sy = sy;
+        }
+
+        public double x(double t) {
+            t *= p;
+            return (R*t-r*Math.cos(t+Math.PI/2.0))*sx;
+        }
+
+        public double y(double t) {
+            t *= p;
+            return (h*Math.sin(t+Math.PI/2.0)+h)*sy;
+        }
+
+        double dx(double t) {
+            return p*(R+r*Math.cos(t*p))*sx;
+        }
+
+        double dy(double t) {
+            return -1*p*h*Math.sin(t*p)*sy;
+        }
+
+        double[] turningPoints(double t0, double t1) {
+            // dy/dt vanishes at the crests and cusps, dx/dt where cos(u) = -R/r
+            if (p == 0) {
+                return new double[0];
+            }
+            if (Math.abs(r) >= Math.abs(R) && r != 0) {
+                double loop = Math.acos(-1*R/r);
+                return periodicPoints(t0, t1, p, new double[] {0.0, Math.PI, loop, 2*Math.PI-loop});
+            }
+            return periodicPoints(t0, t1, p, new double[] {0.0, Math.PI});
+        }
+
+        void eval(double[] ts, int from, int to, double[] xs, double[] ys) {
+            for (int i=from; i<to; i++) {
+                double u = ts[i]*p;
+                xs[i] = (R*u-r*Math.cos(u+Math.PI/2.0))*sx;
+                ys[i] = (h*Math.sin(u+Math.PI/2.0)+h)*sy;
+            }
+        }
+
+        void sample(double t0, double t1, int res, int from, int to,
+                    double[] xs, double[] ys, int offset) {
+            double step = p*(t1-t0)/res;
+            double cosStep = Math.cos(step);
+            double sinStep = Math.sin(step);
+            double s = 0.0; // -cos(u+pi/2), i.e. sin(u)
+            double c = 0.0; // sin(u+pi/2), i.e. cos(u)
+            for (int i=from-from%ANCHOR; i<to; i++) {
+                double u = ((t1-t0)*i/res+t0)*p;
+                if (i%ANCHOR == 0) {
+                    s = -1*Math.cos(u+Math.PI/2.0);
+                    c = Math.sin(u+Math.PI/2.0);
+                } else {
+                    double next = s*cosStep+c*sinStep;
+                    c = c*cosStep-s*sinStep;
+                    s = next;
+                }
+                if (i >= from) {
+                    xs[offset+i-from] = (R*u+r*s)*sx;
+                    ys[offset+i-from] = (h*c+h)*sy;
+                }
+            }
+        }
+    }
+
+    /**
+     * Catenary x = t*sx, y = (a*cosh(t/a)-a)*sy, as Catenary.CatenaryX/Y.
+     */
+    static class CatenaryCurve extends UniformKernel {
+        private final double a;
+        private final double sx;
+        private final double sy;
+
+        CatenaryCurve(double a, double sx, double sy) {
+            this.a = a;
+            this.sx = sx;
+            this.sy = sy;
+        }
+
+        public double x(double t) {
+            return t*sx;
+        }
+
+        public double y(double t) {
+            return (a*Math.cosh(t/a)-a)*sy;
+        }
+
+        double dx(double t) {
+            return sx;
+        }
+
+        double dy(double t) {
+            return Math.sinh(t/a)*sy;
+        }
+
+        double[] turningPoints(double t0, double t1) {
+            // the lowest point
+            if (Math.min(t0, t1) < 0 && Math.max(t0, t1) > 0) {
+                return new double[] {0.0};
+            }
+            return new double[0];
+        }
+
+        void eval(double[] ts, int from, int to, double[] xs, double[] ys) {
+            for (int i=from; i<to; i++) {
+                double t = ts[i];
+                xs[i] = t*sx;
+                ys[i] = (a*Math.cosh(t/a)-a)*sy;
+            }
+        }
+
+        void sample(double t0, double t1, int res, int from, int to,
+                    double[] xs, double[] ys, int offset) {
+            double ratio = Math.exp((t1-t0)/res/a);
+            double e = 0.0; // exp(t/a)
+            double f = 0.0; // exp(-t/a)
+            double cosh = 0.0;
+            for (int i=from-from%ANCHOR; i<to; i++) {
+                double t = (t1-t0)*i/res+t0;
+                if (i%ANCHOR == 0) {
+                    e = Math.exp(t/a);
+                    f = 1/e;
+                    cosh = Math.cosh(t/a);
+                } else {
+                    e *= ratio;
+                    f /= ratio;
+                    cosh = (e+f)/2;
+                }
+                if (i >= from) {
+                    xs[offset+i-from] = t*sx;
+                    ys[offset+i-from] = (a*cosh-a)*sy;
+                }
+            }
+        }
+    }
+}